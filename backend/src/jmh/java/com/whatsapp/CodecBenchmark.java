@@ -0,0 +1,137 @@
+package com.whatsapp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding and encoding BSON through the domain codecs versus through an
+ * intermediate Document mapped field by field, as the repositories did
+ * before DomainCodecs. Inputs are raw BSON bytes, as they arrive from the
+ * server, so both paths pay the same parsing cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private static final DecoderContext DECODE = DecoderContext.builder().build();
+    private static final EncoderContext ENCODE = EncoderContext.builder().build();
+
+    private final Codec<Message> messageCodec = DomainCodecs.registry().get(Message.class);
+    private final Codec<User> userCodec = DomainCodecs.registry().get(User.class);
+    private final Codec<Document> documentCodec = DomainCodecs.registry().get(Document.class);
+
+    private Message message;
+    private byte[] messageBson;
+    private byte[] userBson;
+
+    @Setup
+    public void setUp() {
+        message = new Message("MSG-1a2b3c4d", "USR-alice", "See you at the station at half past six",
+                new Date(), "MSG-0a1b2c3d", "CHAT-9f8e7d6c", 1234);
+        messageBson = toBytes(messageToDocument(message));
+
+        List<String> friends = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            friends.add("USR-" + i);
+        }
+        userBson = toBytes(new Document("userId", "USR-alice")
+                .append("profilename", "Alice")
+                .append("phoneNumber", "+15550100")
+                .append("friends", friends)
+                .append("lastUpdated", new Date()));
+    }
+
+    @Benchmark
+    public Message decodeMessageWithCodec() {
+        return messageCodec.decode(reader(messageBson), DECODE);
+    }
+
+    @Benchmark
+    public Message decodeMessageViaDocument() {
+        return documentToMessage(documentCodec.decode(reader(messageBson), DECODE));
+    }
+
+    @Benchmark
+    public User decodeUserWithCodec() {
+        return userCodec.decode(reader(userBson), DECODE);
+    }
+
+    @Benchmark
+    public User decodeUserViaDocument() {
+        Document doc = documentCodec.decode(reader(userBson), DECODE);
+        List<String> friends = doc.getList("friends", String.class);
+        return new User(doc.getString("userId"), doc.getString("profilename"), doc.getString("phoneNumber"),
+                friends != null ? friends : new ArrayList<>());
+    }
+
+    @Benchmark
+    public int encodeMessageWithCodec() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        messageCodec.encode(new BsonBinaryWriter(buffer), message, ENCODE);
+        return buffer.getPosition();
+    }
+
+    @Benchmark
+    public int encodeMessageViaDocument() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        documentCodec.encode(new BsonBinaryWriter(buffer), messageToDocument(message), ENCODE);
+        return buffer.getPosition();
+    }
+
+    private static BsonBinaryReader reader(byte[] bson) {
+        return new BsonBinaryReader(ByteBuffer.wrap(bson));
+    }
+
+    private byte[] toBytes(Document document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        documentCodec.encode(new BsonBinaryWriter(buffer), document, ENCODE);
+        return buffer.toByteArray();
+    }
+
+    // The mappings MongoMessageRepository used before the codecs
+
+    private static Document messageToDocument(Message message) {
+        Document messageDoc = new Document()
+                .append("messageId", message.getMessageId())
+                .append("senderId", message.getSenderId())
+                .append("content", message.getContent())
+                .append("timestamp", message.getTimestamp())
+                .append("parentMessageId", message.getParentMessageId())
+                .append("isReply", message.isReply());
+        if (message.isPersisted()) {
+            messageDoc.append("conversationId", message.getConversationId())
+                      .append("sequence", message.getSequence());
+        }
+        return messageDoc;
+    }
+
+    private static Message documentToMessage(Document doc) {
+        Number sequence = (Number) doc.get("sequence");
+        return new Message(doc.getString("messageId"), doc.getString("senderId"), doc.getString("content"),
+                doc.getDate("timestamp"), doc.getString("parentMessageId"),
+                doc.getString("conversationId"), sequence != null ? sequence.longValue() : 0);
+    }
+}
@@ -0,0 +1,369 @@
+package com.whatsapp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Direct messages sent through the real server, a RestServer with its
+ * WebSocketServer on the in-memory storage engine, in platform and virtual
+ * thread mode. Each trial first opens connections WebSocket clients that
+ * stay connected and read whatever the server pushes, like idle users; each
+ * benchmark thread is then one more client sending direct_message frames to
+ * those users. One operation is a send up to its message_sent confirmation,
+ * so the p0.99 line of the sample-time result is the p99 message_sent latency.
+ *
+ * The mode is applied per fork through thread.mode, set before anything
+ * touches ThreadingMode. After every trial the most connections the server
+ * held at once (idle users plus senders) is printed. The virtual cases need
+ * JDK 21 (mvn -Pbench,jdk21); on older JDKs they fail in setup instead of
+ * silently measuring platform threads. Set PORT and WS_PORT if 8080/8081 are taken;
+ * both ends of every connection live in the benchmark process, so the open
+ * file limit has to cover twice the connections.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(16)
+public class ThreadingModeBenchmark {
+    private static final int WS_PORT = envInt("WS_PORT", 8081);
+    private static final long STARTUP_TIMEOUT_MS = 120_000;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"platform", "virtual"})
+        public String mode;
+
+        // Connected users held open for the whole trial
+        @Param({"1000", "4000"})
+        public int connections;
+
+        private StorageEngine engine;
+        private RestServer server;
+        private IdleClients idleClients;
+        private final AtomicInteger nextSender = new AtomicInteger();
+        private int peakOpen;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            System.setProperty("thread.mode", mode);
+            if ("virtual".equals(mode) && !ThreadingMode.virtualThreadsAvailable()) {
+                throw new IllegalStateException("Virtual threads need JDK 21 or newer (running "
+                        + Runtime.version().feature() + ")");
+            }
+
+            engine = StorageEngine.inMemory();
+            for (int i = 0; i < connections; i++) {
+                engine.getUserRepository().saveUser(new User(heldUserId(i), "Held " + i, "+1000" + i));
+            }
+            server = new RestServer(engine);
+            server.start();
+            awaitServer();
+
+            idleClients = new IdleClients();
+            for (int i = 0; i < connections; i++) {
+                idleClients.add(BenchClient.connect(heldUserId(i)).channel);
+            }
+            awaitOpenChannels(connections);
+            System.out.println("✓ " + mode + " threads: holding " + connections + " connections");
+        }
+
+        // Senders are still connected at the end of each iteration
+        @TearDown(Level.Iteration)
+        public void recordOpenConnections() {
+            peakOpen = Math.max(peakOpen, server.getWebSocketServer().getOpenChannelCount());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            System.out.println("✓ " + mode + " threads: held " + peakOpen + " connections at once ("
+                    + connections + " idle users, " + nextSender.get() + " senders), "
+                    + idleClients.closedByServer.get() + " closed by the server");
+            idleClients.close();
+            server.stop();
+            engine.close();
+        }
+
+        private void awaitServer() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+            while (server.getWebSocketServer() == null || !server.getWebSocketServer().isRunning()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("WebSocket server did not start on port " + WS_PORT);
+                }
+                Thread.sleep(10);
+            }
+        }
+
+        // Wait until the server has registered every client, including the status broadcasts they cause
+        private void awaitOpenChannels(int expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+            int open;
+            while ((open = server.getWebSocketServer().getOpenChannelCount()) < expected) {
+                if (System.currentTimeMillis() > deadline || idleClients.closedByServer.get() > 0) {
+                    throw new IllegalStateException("Server holds only " + open + " of " + expected
+                            + " connections");
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sender {
+        private BenchClient client;
+        private String message;
+
+        @Setup(Level.Trial)
+        public void setUp(Server server) throws IOException {
+            int index = server.nextSender.getAndIncrement();
+            String userId = "USR-sender-" + index;
+            server.engine.getUserRepository().saveUser(new User(userId, "Sender " + index, "+2000" + index));
+            client = BenchClient.connect(userId);
+
+            // Spread the senders over the held users
+            JSONObject json = new JSONObject();
+            json.put("type", "direct_message");
+            json.put("receiverId", heldUserId(index * 7919 % server.connections));
+            json.put("content", "See you at the station at half past six");
+            message = json.toString();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            client.channel.close();
+        }
+    }
+
+    @Benchmark
+    public String directMessage(Sender sender) throws IOException {
+        sender.client.sendText(sender.message);
+        // Status updates and other pushes can arrive first; the next confirmation is this send's
+        while (true) {
+            String reply = sender.client.readText();
+            if (reply.contains("\"message_sent\"")) {
+                return reply;
+            }
+            if (reply.contains("\"error\"")) {
+                throw new IllegalStateException("Send failed: " + reply);
+            }
+        }
+    }
+
+    private static String heldUserId(int index) {
+        return "USR-held-" + index;
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value != null && !value.isEmpty()) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                System.out.println("Warning: Invalid " + name + " value, using default: " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * A blocking WebSocket client: masked text frames out, server frames in
+     */
+    static final class BenchClient {
+        private static final byte[] MASK = {0x1f, 0x2e, 0x3d, 0x4c};
+
+        final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+
+        private BenchClient(SocketChannel channel) {
+            this.channel = channel;
+            in.flip();
+        }
+
+        static BenchClient connect(String userId) throws IOException {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", WS_PORT));
+            channel.socket().setTcpNoDelay(true);
+            BenchClient client = new BenchClient(channel);
+            String request = "GET /?userId=" + userId + " HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n";
+            client.writeFully(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+            client.readHandshake();
+            return client;
+        }
+
+        void sendText(String text) throws IOException {
+            byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+            int headerLength = payload.length < 126 ? 2 : 4;
+            ByteBuffer frame = ByteBuffer.allocate(headerLength + 4 + payload.length);
+            frame.put((byte) 0x81);
+            if (payload.length < 126) {
+                frame.put((byte) (0x80 | payload.length));
+            } else {
+                frame.put((byte) (0x80 | 126));
+                frame.putShort((short) payload.length);
+            }
+            frame.put(MASK);
+            for (int i = 0; i < payload.length; i++) {
+                frame.put((byte) (payload[i] ^ MASK[i & 3]));
+            }
+            frame.flip();
+            writeFully(frame);
+        }
+
+        // Next text message; the server sends every message as one unmasked frame
+        String readText() throws IOException {
+            while (true) {
+                fill(2);
+                int opcode = in.get(in.position()) & 0x0F;
+                int length7 = in.get(in.position() + 1) & 0x7F;
+                int headerLength = length7 == 126 ? 4 : length7 == 127 ? 10 : 2;
+                fill(headerLength);
+                long length = length7 == 126 ? in.getShort(in.position() + 2) & 0xFFFF
+                        : length7 == 127 ? in.getLong(in.position() + 2) : length7;
+                if (headerLength + length > in.capacity()) {
+                    throw new IOException("Frame of " + length + " bytes is larger than the client buffer");
+                }
+                fill(headerLength + (int) length);
+                in.position(in.position() + headerLength);
+                byte[] payload = new byte[(int) length];
+                in.get(payload);
+                if (opcode == WebSocketFrameDecoder.OP_CLOSE) {
+                    throw new IOException("Server closed the connection");
+                }
+                if (opcode == WebSocketFrameDecoder.OP_TEXT) {
+                    return new String(payload, StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        private void readHandshake() throws IOException {
+            while (true) {
+                String received = StandardCharsets.US_ASCII.decode(in.duplicate()).toString();
+                int end = received.indexOf("\r\n\r\n");
+                if (end >= 0) {
+                    if (!received.startsWith("HTTP/1.1 101")) {
+                        throw new IOException("Upgrade refused: " + received.substring(0, end));
+                    }
+                    in.position(in.position() + end + 4);
+                    return;
+                }
+                fill(in.remaining() + 1);
+            }
+        }
+
+        // Make at least count bytes readable from in
+        private void fill(int count) throws IOException {
+            if (in.remaining() >= count) {
+                return;
+            }
+            in.compact();
+            try {
+                while (in.position() < count) {
+                    if (channel.read(in) < 0) {
+                        throw new IOException("Server closed the connection");
+                    }
+                }
+            } finally {
+                in.flip();
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads and discards everything pushed to the held connections on one
+     * thread, so they behave like connected clients that keep up
+     */
+    static final class IdleClients implements Runnable {
+        private final Selector selector = Selector.open();
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final List<SocketChannel> channels = new ArrayList<>();
+        private final ByteBuffer discard = ByteBuffer.allocateDirect(64 * 1024);
+        private final Thread thread = new Thread(this, "bench-idle-clients");
+        final AtomicInteger closedByServer = new AtomicInteger();
+        private volatile boolean running = true;
+
+        IdleClients() throws IOException {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void add(SocketChannel channel) throws IOException {
+            channel.configureBlocking(false);
+            channels.add(channel);
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(100);
+                    SocketChannel added;
+                    while ((added = pending.poll()) != null) {
+                        added.register(selector, SelectionKey.OP_READ);
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        discard.clear();
+                        if (channel.read(discard) < 0) {
+                            closedByServer.incrementAndGet();
+                            key.cancel();
+                            channel.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("✗ Idle client reader failed: " + e.getMessage());
+                }
+            }
+        }
+
+        void close() throws IOException {
+            running = false;
+            selector.wakeup();
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+        }
+    }
+}
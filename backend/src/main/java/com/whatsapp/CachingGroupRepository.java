@@ -0,0 +1,186 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * GroupRepository with a membership cache keyed by groupId.
+ * getGroupMembers answers from an immutable member set, so membership
+ * tests are O(1) and never touch group messages. Entries live for at most
+ * ttlMillis and are dropped whenever a group is saved, updated or deleted
+ * through this repository; at most maxSize groups are kept.
+ */
+public class CachingGroupRepository implements GroupRepository {
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final long DEFAULT_TTL_SECONDS = 60;
+
+    private final GroupRepository delegate;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, MembershipEntry> memberships = new ConcurrentHashMap<>();
+    // Bumped on every invalidation so a load that raced with a member change is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class MembershipEntry {
+        final Set<String> members;
+        final long expiresAt;
+
+        MembershipEntry(Set<String> members, long expiresAt) {
+            this.members = members;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public CachingGroupRepository(GroupRepository delegate, int maxSize, long ttl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    public CachingGroupRepository(GroupRepository delegate) {
+        this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean saveGroup(Group group) {
+        boolean saved = delegate.saveGroup(group);
+        invalidate(group.getGroupId());
+        return saved;
+    }
+
+    @Override
+    public Group getGroupById(String groupId) {
+        return delegate.getGroupById(groupId);
+    }
+
+    // Unmodifiable member set; null if the group does not exist
+    @Override
+    public Set<String> getGroupMembers(String groupId) {
+        MembershipEntry entry = memberships.get(groupId);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            hits.increment();
+            return entry.members;
+        }
+        misses.increment();
+
+        long version = invalidations.get();
+        Set<String> loaded = delegate.getGroupMembers(groupId);
+        if (loaded == null) {
+            memberships.remove(groupId);
+            return null;
+        }
+        Set<String> members = Collections.unmodifiableSet(loaded);
+        if (invalidations.get() == version) {
+            if (memberships.size() >= maxSize) {
+                evictExpired();
+            }
+            if (memberships.size() < maxSize) {
+                memberships.put(groupId, new MembershipEntry(members, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+        return members;
+    }
+
+    // Cache hits complete immediately instead of taking a repository thread
+    @Override
+    public CompletableFuture<Set<String>> getGroupMembersAsync(String groupId) {
+        MembershipEntry entry = memberships.get(groupId);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            hits.increment();
+            return CompletableFuture.completedFuture(entry.members);
+        }
+        return RepositoryExecutor.supply(() -> getGroupMembers(groupId));
+    }
+
+    public boolean isMember(String groupId, String userId) {
+        Set<String> members = getGroupMembers(groupId);
+        return members != null && members.contains(userId);
+    }
+
+    @Override
+    public List<Group> getGroupsByUser(String userId) {
+        return delegate.getGroupsByUser(userId);
+    }
+
+    @Override
+    public long countGroupsByUser(String userId) {
+        return delegate.countGroupsByUser(userId);
+    }
+
+    @Override
+    public List<ConversationSummary> getGroupSummariesByUser(String userId) {
+        return delegate.getGroupSummariesByUser(userId);
+    }
+
+    @Override
+    public List<Group> getAllGroups() {
+        return delegate.getAllGroups();
+    }
+
+    @Override
+    public RecordCursor<Group> streamAllGroups(int batchSize) {
+        return delegate.streamAllGroups(batchSize);
+    }
+
+    @Override
+    public boolean updateGroup(Group group) {
+        boolean updated = delegate.updateGroup(group);
+        invalidate(group.getGroupId());
+        return updated;
+    }
+
+    @Override
+    public boolean appendMessage(String groupId, Message message) {
+        return delegate.appendMessage(groupId, message);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> appendMessageAsync(String groupId, Message message) {
+        return delegate.appendMessageAsync(groupId, message);
+    }
+
+    @Override
+    public boolean deleteGroup(String groupId) {
+        boolean deleted = delegate.deleteGroup(groupId);
+        invalidate(groupId);
+        return deleted;
+    }
+
+    public void invalidate(String groupId) {
+        invalidations.incrementAndGet();
+        memberships.remove(groupId);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Make room by dropping expired entries, then the oldest until a tenth of the cache is free,
+    // so a full cache is scanned once per maxSize / 10 inserts rather than on every one
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        memberships.values().removeIf(entry -> entry.expiresAt <= now);
+        int excess = memberships.size() - (maxSize - Math.max(1, maxSize / 10));
+        if (excess <= 0) {
+            return;
+        }
+        // Every entry lives for the same TTL, so the earliest expiry is the oldest
+        List<Map.Entry<String, MembershipEntry>> entries = new ArrayList<>(memberships.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().expiresAt));
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            Map.Entry<String, MembershipEntry> oldest = entries.get(i);
+            memberships.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+}
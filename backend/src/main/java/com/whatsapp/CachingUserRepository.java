@@ -0,0 +1,270 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache in front of a UserRepository.
+ * Full user records are cached by userId for at most ttlMillis and at most
+ * maxSize entries (oldest inserted evicted first). Writes through this
+ * repository invalidate the affected entries; callers always receive copies,
+ * so mutating a returned User never changes the cached one.
+ */
+public class CachingUserRepository implements UserRepository {
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final long DEFAULT_TTL_SECONDS = 300;
+
+    private final UserRepository delegate;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Queue<CacheEntry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Bumped on every invalidation so a load that raced with a write is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private static class CacheEntry {
+        final User user;
+        final long expiresAt;
+
+        CacheEntry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public CachingUserRepository(UserRepository delegate, int maxSize, long ttl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    // USER_CACHE_SIZE (0 disables) and USER_CACHE_TTL_SECONDS tune the cache
+    public static UserRepository wrapFromEnvironment(UserRepository delegate) {
+        int maxSize = parsePositive(System.getenv("USER_CACHE_SIZE"), DEFAULT_MAX_SIZE);
+        long ttlSeconds = parsePositive(System.getenv("USER_CACHE_TTL_SECONDS"), DEFAULT_TTL_SECONDS);
+        if (maxSize == 0 || ttlSeconds == 0) {
+            return delegate;
+        }
+        return new CachingUserRepository(delegate, maxSize, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        invalidate(user.getUserId());
+        return delegate.saveUser(user);
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        User cached = lookup(userId);
+        if (cached != null) {
+            return cached;
+        }
+        long version = invalidations.get();
+        User user = delegate.getUserById(userId);
+        cache(user, version);
+        return user;
+    }
+
+    // Cache hits complete immediately instead of taking a repository thread
+    @Override
+    public CompletableFuture<User> getUserByIdAsync(String userId) {
+        User cached = lookup(userId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return RepositoryExecutor.supply(() -> {
+            long version = invalidations.get();
+            User user = delegate.getUserById(userId);
+            cache(user, version);
+            return user;
+        });
+    }
+
+    // Cached users are returned directly; only the misses go to the backing repository
+    @Override
+    public List<User> getUsersByIds(Collection<String> userIds) {
+        Map<String, User> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String userId : userIds) {
+            User cached = lookup(userId);
+            if (cached != null) {
+                found.put(userId, cached);
+            } else {
+                missing.add(userId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            // Batch loads carry display fields only, so they are not cached
+            for (User user : delegate.getUsersByIds(missing)) {
+                found.put(user.getUserId(), user);
+            }
+        }
+
+        List<User> users = new ArrayList<>();
+        for (String userId : userIds) {
+            User user = found.get(userId);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public User findByPhoneNumber(String phoneNumber) {
+        long version = invalidations.get();
+        User user = delegate.findByPhoneNumber(phoneNumber);
+        cache(user, version);
+        return user;
+    }
+
+    @Override
+    public Map<String, User> findByPhoneNumbers(Collection<String> phoneNumbers) {
+        return delegate.findByPhoneNumbers(phoneNumbers);
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return delegate.getAllUsers();
+    }
+
+    // Bulk scans bypass the cache so they do not flush the hot entries
+    @Override
+    public RecordCursor<User> streamAllUsers(int batchSize) {
+        return delegate.streamAllUsers(batchSize);
+    }
+
+    @Override
+    public boolean updateUser(User user) {
+        boolean updated = delegate.updateUser(user);
+        invalidate(user.getUserId());
+        return updated;
+    }
+
+    @Override
+    public boolean deleteUser(String userId) {
+        boolean deleted = delegate.deleteUser(userId);
+        invalidate(userId);
+        return deleted;
+    }
+
+    public void invalidate(String userId) {
+        invalidations.incrementAndGet();
+        if (entries.remove(userId) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Entries dropped to stay within maxSize
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // Entries dropped because their TTL ran out
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public String getStatsLine() {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return String.format("size=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d",
+                size(), hitCount, getMissCount(), total == 0 ? 0.0 : 100.0 * hitCount / total,
+                getEvictionCount(), getExpirationCount());
+    }
+
+    private User lookup(String userId) {
+        CacheEntry entry = entries.get(userId);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            if (entries.remove(userId, entry)) {
+                size.decrementAndGet();
+                expirations.increment();
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copyOf(entry.user);
+    }
+
+    private void cache(User user, long version) {
+        if (user == null) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(copyOf(user), System.currentTimeMillis() + ttlMillis);
+        if (invalidations.get() != version) {
+            return;
+        }
+        if (entries.put(user.getUserId(), entry) == null) {
+            size.incrementAndGet();
+        }
+        insertionOrder.add(entry);
+        queued.incrementAndGet();
+        evictOverflow();
+    }
+
+    // Drop the oldest inserted entries until the cache is back within maxSize.
+    // Replaced and invalidated entries linger in the queue, so it is bounded too.
+    private void evictOverflow() {
+        while (size.get() > maxSize || queued.get() > maxSize * 2) {
+            CacheEntry oldest = insertionOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            queued.decrementAndGet();
+            if (entries.remove(oldest.user.getUserId(), oldest)) {
+                size.decrementAndGet();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static User copyOf(User user) {
+        return new User(user.getUserId(), user.getProfilename(), user.getPhoneNumber(), user.getFriends());
+    }
+
+    private static int parsePositive(String value, int defaultValue) {
+        return (int) parsePositive(value, (long) defaultValue);
+    }
+
+    private static long parsePositive(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Warning: Invalid user cache setting '" + value + "', using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
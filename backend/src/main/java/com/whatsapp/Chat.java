@@ -17,12 +17,26 @@ public class Chat {
         this.createdAt = new Date();
     }
 
+    // Constructor for loading from database
+    public Chat(String chatId, String userId1, String userId2, Date createdAt) {
+        this.chatId = chatId;
+        this.userId1 = userId1;
+        this.userId2 = userId2;
+        this.messages = new ArrayList<>();
+        this.createdAt = createdAt != null ? createdAt : new Date();
+    }
+
+    // Order-independent key for the pair of participants, identical for (A, B) and (B, A)
+    public static String pairKey(String userIdA, String userIdB) {
+        return userIdA.compareTo(userIdB) <= 0 ? userIdA + "|" + userIdB : userIdB + "|" + userIdA;
+    }
+
     public void addMessage(Message message) {
         messages.add(message);
     }
 
     public void addReply(String messageId, String senderId, String replyContent) {
-        String replyId = "MSG-" + UUID.randomUUID().toString().substring(0, 8);
+        String replyId = MessageIdGenerator.nextMessageId();
         Message reply = new Message(replyId, senderId, replyContent, messageId);
         messages.add(reply);
     }
@@ -52,6 +66,10 @@ public class Chat {
         return userId2;
     }
 
+    public String getPairKey() {
+        return pairKey(userId1, userId2);
+    }
+
     public String getOtherUserId(String userId) {
         return userId.equals(userId1) ? userId2 : userId1;
     }
@@ -0,0 +1,54 @@
+package com.whatsapp;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import java.util.*;
+
+/**
+ * Chat documents of the chats collection. Only the chat's own fields are
+ * read; the sequence counter and summary fields belong to the repository,
+ * and the history lives in the messages collection.
+ */
+public class ChatCodec implements Codec<Chat> {
+    @Override
+    public void encode(BsonWriter writer, Chat chat, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        DomainCodecs.writeString(writer, "chatId", chat.getChatId());
+        DomainCodecs.writeString(writer, "userId1", chat.getUserId1());
+        DomainCodecs.writeString(writer, "userId2", chat.getUserId2());
+        DomainCodecs.writeString(writer, "pairKey", chat.getPairKey());
+        DomainCodecs.writeDate(writer, "createdAt", chat.getCreatedAt());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Chat decode(BsonReader reader, DecoderContext decoderContext) {
+        String chatId = null;
+        String userId1 = null;
+        String userId2 = null;
+        Date createdAt = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "chatId": chatId = DomainCodecs.readString(reader); break;
+                case "userId1": userId1 = DomainCodecs.readString(reader); break;
+                case "userId2": userId2 = DomainCodecs.readString(reader); break;
+                case "createdAt": createdAt = DomainCodecs.readDate(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new Chat(chatId, userId1, userId2, createdAt);
+    }
+
+    @Override
+    public Class<Chat> getEncoderClass() {
+        return Chat.class;
+    }
+}
@@ -10,22 +10,11 @@ public class ChatManager {
     }
 
     public Chat createOrGetChat(String userId1, String userId2) {
-        String chatKey1 = userId1 + "-" + userId2;
-        String chatKey2 = userId2 + "-" + userId1;
-
-        if (allChats.containsKey(chatKey1)) {
-            return allChats.get(chatKey1);
-        } else if (allChats.containsKey(chatKey2)) {
-            return allChats.get(chatKey2);
-        } else {
-            Chat newChat = new Chat(userId1, userId2);
-            allChats.put(chatKey1, newChat);
-            return newChat;
-        }
+        return allChats.computeIfAbsent(Chat.pairKey(userId1, userId2), key -> new Chat(userId1, userId2));
     }
 
     public void sendMessage(Chat chat, String senderId, String messageContent) {
-        String messageId = "MSG-" + UUID.randomUUID().toString().substring(0, 8);
+        String messageId = MessageIdGenerator.nextMessageId();
         Message message = new Message(messageId, senderId, messageContent);
         chat.addMessage(message);
         System.out.println("Message sent successfully!");
@@ -0,0 +1,69 @@
+package com.whatsapp;
+
+import java.util.*;
+
+/**
+ * Read model for the conversation list: what a chat or group looks like
+ * without any of its messages. The counters and last-message fields are
+ * maintained on the chat/group document on every send.
+ */
+public class ConversationSummary {
+    public static final int PREVIEW_LENGTH = 100;
+
+    private String conversationId;
+    private String title;
+    private List<String> participants;
+    private long messageCount;
+    private String lastMessagePreview;
+    private String lastSenderId;
+    private Date lastActivityAt;
+
+    public ConversationSummary(String conversationId, String title, List<String> participants,
+                               long messageCount, String lastMessagePreview, String lastSenderId,
+                               Date lastActivityAt) {
+        this.conversationId = conversationId;
+        this.title = title;
+        this.participants = participants != null ? new ArrayList<>(participants) : new ArrayList<>();
+        this.messageCount = messageCount;
+        this.lastMessagePreview = lastMessagePreview;
+        this.lastSenderId = lastSenderId;
+        this.lastActivityAt = lastActivityAt;
+    }
+
+    // Shorten message content to what the conversation list displays
+    public static String toPreview(String content) {
+        if (content == null || content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+        return content.substring(0, PREVIEW_LENGTH);
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    // Group name for groups, null for private chats
+    public String getTitle() {
+        return title;
+    }
+
+    public List<String> getParticipants() {
+        return new ArrayList<>(participants);
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
+    public String getLastSenderId() {
+        return lastSenderId;
+    }
+
+    public Date getLastActivityAt() {
+        return lastActivityAt;
+    }
+}
@@ -0,0 +1,102 @@
+package com.whatsapp;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import java.util.*;
+
+/**
+ * Codec registry for the domain classes stored in MongoDB.
+ * Collections opened with a domain class as their document class decode
+ * query results straight from BSON into Message, User, Chat and Group,
+ * without building an intermediate Document per record.
+ */
+public final class DomainCodecs {
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new MessageCodec(), new UserCodec(), new ChatCodec(), new GroupCodec()),
+            MongoClientSettings.getDefaultCodecRegistry()
+    );
+
+    private DomainCodecs() {
+    }
+
+    public static CodecRegistry registry() {
+        return REGISTRY;
+    }
+
+    // Field readers shared by the codecs; unexpected types and nulls read as absent
+
+    static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.STRING) {
+            return reader.readString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    static long readLong(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT64:
+                return reader.readInt64();
+            case INT32:
+                return reader.readInt32();
+            case DOUBLE:
+                return (long) reader.readDouble();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    static Date readDate(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+            return new Date(reader.readDateTime());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    static List<String> readStringList(BsonReader reader) {
+        List<String> values = new ArrayList<>();
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return values;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String value = readString(reader);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        reader.readEndArray();
+        return values;
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    static void writeDate(BsonWriter writer, String name, Date value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeDateTime(name, value.getTime());
+        }
+    }
+
+    static void writeStringList(BsonWriter writer, String name, Collection<String> values) {
+        writer.writeStartArray(name);
+        for (String value : values) {
+            writer.writeString(value);
+        }
+        writer.writeEndArray();
+    }
+}
@@ -0,0 +1,158 @@
+package com.whatsapp;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import java.util.*;
+
+/**
+ * Folds private chats that share a pairKey into one, so the unique pairKey
+ * index can be built on databases from before pair keys existed, when two
+ * first messages racing each other could each create a chat for the pair.
+ *
+ * The oldest chat already using sequence numbers is kept (the oldest chat if
+ * none is). The other chats' messages, archived ones included, are moved in
+ * after its existing sequence range; chats still carrying a legacy
+ * messageIds array are adopted the same way, or appended to the kept chat's
+ * array if it is legacy too. The kept chat's counters and summary are updated
+ * and the duplicates deleted. Every step is safe to repeat after a partial run.
+ */
+public class DuplicateChatMerger {
+    private final MongoCollection<Document> chatCollection;
+    private final MongoCollection<Document> messageCollection;
+    private final MessageArchive archive;
+
+    public DuplicateChatMerger(MongoDatabase database) {
+        this.chatCollection = database.getCollection("chats");
+        this.messageCollection = database.getCollection("messages");
+        this.archive = new MessageArchive(database.getCollection(MessageArchive.COLLECTION_NAME),
+                database.getCollection("messages", Message.class));
+    }
+
+    /**
+     * Merge every set of chats sharing a pairKey; returns the number of chats removed
+     */
+    public int mergeAll() {
+        List<List<String>> duplicates = new ArrayList<>();
+        for (Document pair : chatCollection.aggregate(Arrays.asList(
+                new Document("$match", new Document("pairKey", new Document("$type", "string"))),
+                new Document("$sort", new Document("createdAt", 1).append("_id", 1)),
+                new Document("$group", new Document("_id", "$pairKey")
+                        .append("chatIds", new Document("$push", "$chatId"))
+                        .append("count", new Document("$sum", 1))),
+                new Document("$match", new Document("count", new Document("$gt", 1)))
+        )).allowDiskUse(true)) {
+            duplicates.add(pair.getList("chatIds", String.class));
+        }
+
+        int removed = 0;
+        for (List<String> chatIds : duplicates) {
+            removed += mergePair(chatIds);
+        }
+        if (removed > 0) {
+            System.out.println("✓ Merged " + removed + " duplicate private chats into " + duplicates.size() + " chats");
+        }
+        return removed;
+    }
+
+    // chatIds are ordered oldest first
+    private int mergePair(List<String> chatIds) {
+        List<Document> chats = new ArrayList<>();
+        for (String chatId : chatIds) {
+            Document chat = chatCollection.find(Filters.eq("chatId", chatId)).first();
+            if (chat != null) {
+                chats.add(chat);
+            }
+        }
+        if (chats.size() < 2) {
+            return 0;
+        }
+
+        Document keeper = chats.get(0);
+        for (Document chat : chats) {
+            if (chat.containsKey("lastSequence")) {
+                keeper = chat;
+                break;
+            }
+        }
+        String keeperId = keeper.getString("chatId");
+        boolean legacyKeeper = !keeper.containsKey("lastSequence");
+        if (!legacyKeeper && !keeper.containsKey("messageCount")) {
+            // Chats migrated before messageCount existed: lastSequence is their count
+            chatCollection.updateOne(Filters.eq("chatId", keeperId),
+                    Updates.set("messageCount", ((Number) keeper.get("lastSequence")).longValue()));
+        }
+
+        Document latest = keeper;
+        int removed = 0;
+        for (Document chat : chats) {
+            if (chat == keeper) {
+                continue;
+            }
+            String chatId = chat.getString("chatId");
+            List<String> legacyIds = chat.containsKey("lastSequence") ? null : chat.getList("messageIds", String.class);
+            if (legacyKeeper) {
+                if (legacyIds != null && !legacyIds.isEmpty()) {
+                    chatCollection.updateOne(Filters.eq("chatId", keeperId), Updates.addEachToSet("messageIds", legacyIds));
+                }
+            } else if (legacyIds == null) {
+                long span = ((Number) chat.get("lastSequence")).longValue();
+                long offset = reserveSequences(keeperId, span, getMessageCount(chat));
+                archive.moveConversation(chatId, keeperId, offset);
+            } else if (!legacyIds.isEmpty()) {
+                long offset = reserveSequences(keeperId, legacyIds.size(), legacyIds.size());
+                adoptLegacyMessages(legacyIds, keeperId, offset);
+            }
+
+            if (isNewer(chat, latest)) {
+                latest = chat;
+            }
+            chatCollection.deleteOne(Filters.eq("chatId", chatId));
+            removed++;
+        }
+
+        if (latest != keeper) {
+            chatCollection.updateOne(Filters.eq("chatId", keeperId), Updates.combine(
+                    Updates.set("lastMessagePreview", latest.getString("lastMessagePreview")),
+                    Updates.set("lastSenderId", latest.getString("lastSenderId")),
+                    Updates.set("lastActivityAt", latest.getDate("lastActivityAt"))));
+        }
+        return removed;
+    }
+
+    // Claim span sequence numbers after the kept chat's range; returns the offset to add
+    private long reserveSequences(String chatId, long span, long count) {
+        Document chat = chatCollection.findOneAndUpdate(
+                Filters.eq("chatId", chatId),
+                Updates.combine(Updates.inc("lastSequence", span), Updates.inc("messageCount", count)),
+                new FindOneAndUpdateOptions()
+                        .projection(Projections.include("lastSequence"))
+                        .returnDocument(ReturnDocument.AFTER));
+        return ((Number) chat.get("lastSequence")).longValue() - span;
+    }
+
+    // Give a legacy chat's messages the kept chat's id and sequences in messageIds order
+    private void adoptLegacyMessages(List<String> messageIds, String chatId, long offset) {
+        messageCollection.updateMany(
+                Filters.and(Filters.in("messageId", messageIds), Filters.exists("conversationId", false)),
+                Collections.singletonList(new Document("$set", new Document("conversationId", chatId)
+                        .append("sequence", new Document("$add", Arrays.asList(offset + 1,
+                                new Document("$indexOfArray", Arrays.asList(messageIds, "$messageId"))))))));
+    }
+
+    private static long getMessageCount(Document chat) {
+        Number count = (Number) chat.get(chat.containsKey("messageCount") ? "messageCount" : "lastSequence");
+        return count != null ? count.longValue() : 0;
+    }
+
+    private static boolean isNewer(Document chat, Document than) {
+        Date activity = chat.getDate("lastActivityAt");
+        Date other = than.getDate("lastActivityAt");
+        return activity != null && (other == null || activity.after(other));
+    }
+}
@@ -55,7 +55,7 @@ public class Group {
             System.out.println("User is not a member of this group!");
             return;
         }
-        String replyId = "MSG-" + UUID.randomUUID().toString().substring(0, 8);
+        String replyId = MessageIdGenerator.nextMessageId();
         Message reply = new Message(replyId, senderId, replyContent, messageId);
         messages.add(reply);
     }
@@ -0,0 +1,59 @@
+package com.whatsapp;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import java.util.*;
+
+/**
+ * Group documents of the groups collection. Only the group's own fields and
+ * members are read; the sequence counter and summary fields belong to the
+ * repository, and the history lives in the messages collection.
+ */
+public class GroupCodec implements Codec<Group> {
+    @Override
+    public void encode(BsonWriter writer, Group group, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        DomainCodecs.writeString(writer, "groupId", group.getGroupId());
+        DomainCodecs.writeString(writer, "groupName", group.getGroupName());
+        DomainCodecs.writeString(writer, "adminId", group.getAdminId());
+        DomainCodecs.writeStringList(writer, "members", group.getMembers());
+        DomainCodecs.writeDate(writer, "createdAt", group.getCreatedAt());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Group decode(BsonReader reader, DecoderContext decoderContext) {
+        String groupId = null;
+        String groupName = null;
+        String adminId = null;
+        List<String> members = Collections.emptyList();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "groupId": groupId = DomainCodecs.readString(reader); break;
+                case "groupName": groupName = DomainCodecs.readString(reader); break;
+                case "adminId": adminId = DomainCodecs.readString(reader); break;
+                case "members": members = DomainCodecs.readStringList(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        // Use constructor that takes groupId to avoid regenerating it
+        Group group = new Group(groupId, groupName, adminId);
+        for (String member : members) {
+            group.addMember(member);
+        }
+        return group;
+    }
+
+    @Override
+    public Class<Group> getEncoderClass() {
+        return Group.class;
+    }
+}
@@ -38,7 +38,7 @@ public class GroupManager {
     public void sendGroupMessage(String groupId, String senderId, String messageContent) {
         Group group = allGroups.get(groupId);
         if (group != null && group.getMembers().contains(senderId)) {
-            String messageId = "MSG-" + UUID.randomUUID().toString().substring(0, 8);
+            String messageId = MessageIdGenerator.nextMessageId();
             Message message = new Message(messageId, senderId, messageContent);
             group.addMessage(message);
             System.out.println("Message sent to group successfully!");
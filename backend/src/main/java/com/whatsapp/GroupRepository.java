@@ -1,165 +1,50 @@
 package com.whatsapp;
 
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Filters;
-import org.bson.Document;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-public class GroupRepository {
-    private MongoCollection<Document> groupCollection;
-    private MessageRepository messageRepository;
-    private static final String COLLECTION_NAME = "groups";
+/**
+ * Storage for groups, their members and conversation summaries.
+ * Implemented by MongoGroupRepository and InMemoryGroupRepository.
+ * The *Async variants run the blocking call on RepositoryExecutor.
+ */
+public interface GroupRepository {
+    // Store a new group together with any messages it already holds
+    boolean saveGroup(Group group);
 
-    public GroupRepository() {
-        this.groupCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME);
-        this.messageRepository = new MessageRepository();
-    }
+    Group getGroupById(String groupId);
 
-    // Push Group to Database
-    public boolean saveGroup(Group group) {
-        try {
-            Document groupDoc = new Document()
-                    .append("groupId", group.getGroupId())
-                    .append("groupName", group.getGroupName())
-                    .append("adminId", group.getAdminId())
-                    .append("members", group.getMembers())
-                    .append("messageIds", getMessageIds(group.getMessages()))
-                    .append("createdAt", group.getCreatedAt());
+    // Member ids only, without loading any messages; null if the group does not exist
+    Set<String> getGroupMembers(String groupId);
 
-            groupCollection.insertOne(groupDoc);
-            
-            // Save all messages
-            for (Message msg : group.getMessages()) {
-                messageRepository.saveMessage(msg);
-            }
-            
-            System.out.println("✓ Group saved to database: " + group.getGroupId());
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error saving group: " + e.getMessage());
-            return false;
-        }
+    default CompletableFuture<Set<String>> getGroupMembersAsync(String groupId) {
+        return RepositoryExecutor.supply(() -> getGroupMembers(groupId));
     }
 
-    // Pull Group from Database
-    public Group getGroupById(String groupId) {
-        try {
-            Document groupDoc = groupCollection.find(Filters.eq("groupId", groupId)).first();
-            
-            if (groupDoc != null) {
-                return documentToGroup(groupDoc);
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving group: " + e.getMessage());
-        }
-        return null;
-    }
+    List<Group> getGroupsByUser(String userId);
 
-    // Get all groups for a user
-    public List<Group> getGroupsByUser(String userId) {
-        List<Group> groups = new ArrayList<>();
-        try {
-            for (Document groupDoc : groupCollection.find(
-                    Filters.in("members", userId)
-            )) {
-                groups.add(documentToGroup(groupDoc));
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving groups: " + e.getMessage());
-        }
-        return groups;
-    }
+    long countGroupsByUser(String userId);
 
-    // Get all groups
-    public List<Group> getAllGroups() {
-        List<Group> groups = new ArrayList<>();
-        try {
-            for (Document groupDoc : groupCollection.find()) {
-                groups.add(documentToGroup(groupDoc));
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving all groups: " + e.getMessage());
-        }
-        return groups;
+    default CompletableFuture<Long> countGroupsByUserAsync(String userId) {
+        return RepositoryExecutor.supply(() -> countGroupsByUser(userId));
     }
 
-    // Update Group
-    public boolean updateGroup(Group group) {
-        try {
-            Document updateDoc = new Document()
-                    .append("groupName", group.getGroupName())
-                    .append("members", group.getMembers())
-                    .append("messageIds", getMessageIds(group.getMessages()));
+    // Conversation-list summaries, newest activity first, without any messages
+    List<ConversationSummary> getGroupSummariesByUser(String userId);
 
-            groupCollection.updateOne(
-                    Filters.eq("groupId", group.getGroupId()),
-                    new Document("$set", updateDoc)
-            );
-            
-            // Update messages
-            for (Message msg : group.getMessages()) {
-                messageRepository.saveMessage(msg);
-            }
-            
-            System.out.println("✓ Group updated in database: " + group.getGroupId());
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error updating group: " + e.getMessage());
-            return false;
-        }
-    }
+    List<Group> getAllGroups();
 
-    // Delete Group
-    public boolean deleteGroup(String groupId) {
-        try {
-            groupCollection.deleteOne(Filters.eq("groupId", groupId));
-            System.out.println("✓ Group deleted from database: " + groupId);
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error deleting group: " + e.getMessage());
-            return false;
-        }
-    }
+    // Every group with its members but without message history, read through a cursor
+    RecordCursor<Group> streamAllGroups(int batchSize);
 
-    // Helper methods
-    private List<String> getMessageIds(List<Message> messages) {
-        List<String> messageIds = new ArrayList<>();
-        for (Message msg : messages) {
-            messageIds.add(msg.getMessageId());
-        }
-        return messageIds;
-    }
+    // Persist name and member changes plus messages added since the group was loaded
+    boolean updateGroup(Group group);
 
-    private Group documentToGroup(Document doc) {
-        @SuppressWarnings("unchecked")
-        List<String> members = (List<String>) doc.get("members");
-        
-        String groupId = doc.getString("groupId");
-        String groupName = doc.getString("groupName");
-        String adminId = doc.getString("adminId");
-        
-        // Use constructor that takes groupId to avoid regenerating it
-        Group group = new Group(groupId, groupName, adminId);
-        
-        // Set all members from database
-        if (members != null) {
-            for (String member : members) {
-                group.addMember(member);
-            }
-        }
-        
-        // Reconstruct messages from IDs
-        @SuppressWarnings("unchecked")
-        List<String> messageIds = (List<String>) doc.get("messageIds");
-        if (messageIds != null) {
-            for (String messageId : messageIds) {
-                Message msg = messageRepository.getMessageById(messageId);
-                if (msg != null) {
-                    group.addMessage(msg);
-                }
-            }
-        }
-        
-        return group;
-    }
+    // Append one message at constant cost regardless of history length; false if the group does not exist
+    boolean appendMessage(String groupId, Message message);
+
+    // The sequence number is reserved on the calling thread, as for chats
+    CompletableFuture<Boolean> appendMessageAsync(String groupId, Message message);
+
+    boolean deleteGroup(String groupId);
 }
@@ -0,0 +1,131 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MessageRepository that serves recent conversation pages from a
+ * HotHistoryStore and passes everything else to the backing repository.
+ * Stored messages are recorded in the store as they are acknowledged;
+ * a conversation's tail is loaded from the backing repository on its
+ * first page read.
+ */
+public class HotHistoryMessageRepository implements MessageRepository {
+    private final MessageRepository delegate;
+    private final HotHistoryStore store;
+
+    public HotHistoryMessageRepository(MessageRepository delegate, HotHistoryStore store) {
+        this.delegate = delegate;
+        this.store = store;
+    }
+
+    @Override
+    public boolean saveMessage(Message message) {
+        boolean saved = delegate.saveMessage(message);
+        if (saved) {
+            store.record(message);
+        }
+        return saved;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> saveMessageAsync(Message message) {
+        return delegate.saveMessageAsync(message).thenApply(saved -> {
+            if (saved) {
+                store.record(message);
+            }
+            return saved;
+        });
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void addFlushListener(MessageBatchWriter.FlushListener listener) {
+        delegate.addFlushListener(listener);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        store.close();
+    }
+
+    @Override
+    public Message getMessageById(String messageId) {
+        return delegate.getMessageById(messageId);
+    }
+
+    @Override
+    public List<Message> getMessagesByConversation(String conversationId) {
+        return delegate.getMessagesByConversation(conversationId);
+    }
+
+    // Serve from the hot tail, loading it first if this conversation has not been read yet
+    @Override
+    public MessagePage getConversationPage(String conversationId, Long beforeSequence,
+                                           Long afterSequence, int limit) {
+        MessagePage page = store.read(conversationId, beforeSequence, afterSequence, limit);
+        if (page != null) {
+            return page;
+        }
+
+        if (!store.isLoaded(conversationId)) {
+            MessagePage newest = delegate.getConversationPage(conversationId, null, null, HotHistoryStore.TAIL_SIZE);
+            if (newest.isEmpty()) {
+                // No history at all, so every page is empty
+                return new MessagePage(new ArrayList<>(), false);
+            }
+            store.load(conversationId, newest.getMessages(), !newest.hasMore());
+            page = store.read(conversationId, beforeSequence, afterSequence, limit);
+            if (page != null) {
+                return page;
+            }
+        }
+        return delegate.getConversationPage(conversationId, beforeSequence, afterSequence, limit);
+    }
+
+    // Hot pages are served on the calling thread; only misses take a repository thread
+    @Override
+    public CompletableFuture<MessagePage> getConversationPageAsync(String conversationId, Long beforeSequence,
+                                                                   Long afterSequence, int limit) {
+        MessagePage page = store.read(conversationId, beforeSequence, afterSequence, limit);
+        if (page != null) {
+            return CompletableFuture.completedFuture(page);
+        }
+        return RepositoryExecutor.supply(() -> getConversationPage(conversationId, beforeSequence, afterSequence, limit));
+    }
+
+    @Override
+    public List<Message> getMessagesBySender(String senderId) {
+        return delegate.getMessagesBySender(senderId);
+    }
+
+    @Override
+    public RecordCursor<Message> streamMessagesBySender(String senderId, int batchSize) {
+        return delegate.streamMessagesBySender(senderId, batchSize);
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return delegate.getAllMessages();
+    }
+
+    @Override
+    public RecordCursor<Message> streamAllMessages(int batchSize) {
+        return delegate.streamAllMessages(batchSize);
+    }
+
+    @Override
+    public boolean deleteMessage(String messageId) {
+        Message message = delegate.getMessageById(messageId);
+        boolean deleted = delegate.deleteMessage(messageId);
+        if (message != null && message.getConversationId() != null) {
+            store.invalidate(message.getConversationId());
+        }
+        return deleted;
+    }
+}
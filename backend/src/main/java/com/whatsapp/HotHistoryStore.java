@@ -0,0 +1,397 @@
+package com.whatsapp;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory-mapped store for the recent tail of each active conversation.
+ * Messages are appended to fixed-size mapped segment files as already-encoded
+ * API JSON, and an in-memory index maps (conversationId, sequence) to the
+ * record, so the newest pages are served as byte copies without a database
+ * round-trip or building Message objects.
+ *
+ * Segments roll when full or after SEGMENT_ROLL_MS and are evicted after
+ * RETENTION_MS, taking the index entries that point into them along.
+ * The index is not persisted: segments from a previous run are deleted on
+ * startup and each tail is reloaded from the database on its first read.
+ *
+ * Record layout: [int jsonLength][long sequence][json: API message, UTF-8]
+ */
+public class HotHistoryStore {
+    // Enough for one MAX_PAGE_SIZE page plus the hasMore probe
+    static final int TAIL_SIZE = 256;
+
+    private static final int SEGMENT_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 64;
+    private static final long SEGMENT_ROLL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long RETENTION_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long EVICTION_CHECK_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String DEFAULT_DIR = "hot-history";
+
+    private final Path directory;
+    private final Map<String, Tail> tails = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment current;
+    private long nextSegmentId = 1;
+    private volatile long lastEvictionCheck = System.currentTimeMillis();
+    private volatile boolean evictionDue;
+
+    private static class Segment {
+        final long id;
+        final long createdAt;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int position;
+
+        Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.createdAt = System.currentTimeMillis();
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    // Location of one encoded message inside a segment
+    private static class Slot {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Slot(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Tail {
+        final TreeMap<Long, Slot> slots = new TreeMap<>();
+        // Every message of the conversation with sequence >= floor is in slots
+        long floor = Long.MAX_VALUE;
+        boolean loaded;
+        boolean retired;
+    }
+
+    public HotHistoryStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stale) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    // HOT_HISTORY=off disables the store; HOT_HISTORY_DIR chooses where segments live
+    public static HotHistoryStore fromEnvironment() {
+        if ("off".equalsIgnoreCase(System.getenv("HOT_HISTORY"))) {
+            return null;
+        }
+        String dir = System.getenv("HOT_HISTORY_DIR");
+        try {
+            return new HotHistoryStore(Paths.get(dir != null && !dir.isEmpty() ? dir : DEFAULT_DIR));
+        } catch (IOException e) {
+            System.out.println("✗ Error opening hot-history store, pages will be read from the database: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean isLoaded(String conversationId) {
+        Tail tail = tails.get(conversationId);
+        if (tail == null) {
+            return false;
+        }
+        synchronized (tail) {
+            return tail.loaded;
+        }
+    }
+
+    /**
+     * Seed a conversation's tail with its newest messages from the database.
+     * reachesStart is true when newest holds the whole conversation.
+     */
+    public void load(String conversationId, List<Message> newest, boolean reachesStart) {
+        if (newest.isEmpty()) {
+            return;
+        }
+        while (true) {
+            Tail tail = tails.computeIfAbsent(conversationId, id -> new Tail());
+            synchronized (tail) {
+                if (tail.retired) {
+                    continue;
+                }
+                for (Message msg : newest) {
+                    addSlot(tail, msg);
+                }
+                tail.floor = reachesStart ? 0 : Math.min(tail.floor, newest.get(0).getSequence());
+                trim(tail);
+                tail.loaded = !tail.slots.isEmpty();
+                break;
+            }
+        }
+        maybeEvict();
+    }
+
+    // Add a newly stored message to its conversation's tail
+    public void record(Message message) {
+        if (!message.isPersisted()) {
+            return;
+        }
+        while (true) {
+            Tail tail = tails.computeIfAbsent(message.getConversationId(), id -> new Tail());
+            synchronized (tail) {
+                if (tail.retired) {
+                    continue;
+                }
+                addSlot(tail, message);
+                trim(tail);
+                break;
+            }
+        }
+        maybeEvict();
+    }
+
+    /**
+     * Serve a page from the tail, or null when the tail cannot answer it
+     * exactly and the caller has to go to the database.
+     */
+    public MessagePage read(String conversationId, Long beforeSequence, Long afterSequence, int limit) {
+        maybeEvict();
+        Tail tail = tails.get(conversationId);
+        if (tail == null) {
+            return null;
+        }
+
+        List<Slot> page = new ArrayList<>();
+        long oldest;
+        long newest;
+        boolean hasMore;
+        synchronized (tail) {
+            if (!tail.loaded) {
+                return null;
+            }
+            // Messages just above an after-cursor may already have been trimmed
+            if (afterSequence != null && afterSequence < tail.floor - 1) {
+                return null;
+            }
+
+            NavigableMap<Long, Slot> range = tail.slots;
+            if (beforeSequence != null) {
+                range = range.headMap(beforeSequence, false);
+            }
+            if (afterSequence != null) {
+                range = range.tailMap(afterSequence, false);
+            }
+
+            // Walk forward from an after-cursor, otherwise backward from the newest end
+            boolean forward = afterSequence != null && beforeSequence == null;
+            NavigableMap<Long, Slot> ordered = forward ? range : range.descendingMap();
+            List<Long> sequences = new ArrayList<>();
+            for (Map.Entry<Long, Slot> entry : ordered.entrySet()) {
+                if (page.size() > limit) {
+                    break;
+                }
+                sequences.add(entry.getKey());
+                page.add(entry.getValue());
+            }
+
+            // Older messages may exist that only the database still has
+            if (afterSequence == null && page.size() <= limit && tail.floor > 0) {
+                return null;
+            }
+            hasMore = page.size() > limit;
+            if (hasMore) {
+                page.remove(page.size() - 1);
+                sequences.remove(sequences.size() - 1);
+            }
+            if (!forward) {
+                Collections.reverse(page);
+                Collections.reverse(sequences);
+            }
+            oldest = sequences.isEmpty() ? 0 : sequences.get(0);
+            newest = sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1);
+        }
+        return new MessagePage(encodePage(page), page.size(), oldest, newest, hasMore);
+    }
+
+    // Drop a conversation's tail; it is reloaded from the database on the next read
+    public void invalidate(String conversationId) {
+        Tail tail = tails.remove(conversationId);
+        if (tail != null) {
+            synchronized (tail) {
+                tail.retired = true;
+            }
+        }
+    }
+
+    public void close() {
+        for (String conversationId : new ArrayList<>(tails.keySet())) {
+            invalidate(conversationId);
+        }
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                deleteSegmentFile(segment);
+            }
+            segments.clear();
+            current = null;
+        }
+    }
+
+    private void addSlot(Tail tail, Message msg) {
+        if (tail.slots.containsKey(msg.getSequence())) {
+            return;
+        }
+        Slot slot = append(msg.getSequence(), MessagePage.encode(msg).toString().getBytes(StandardCharsets.UTF_8));
+        if (slot != null) {
+            tail.slots.put(msg.getSequence(), slot);
+        }
+    }
+
+    private void trim(Tail tail) {
+        if (tail.slots.size() <= TAIL_SIZE) {
+            return;
+        }
+        while (tail.slots.size() > TAIL_SIZE) {
+            tail.slots.pollFirstEntry();
+        }
+        tail.floor = Math.max(tail.floor, tail.slots.firstKey());
+    }
+
+    private String encodePage(List<Slot> page) {
+        int total = 2 + Math.max(0, page.size() - 1);
+        for (Slot slot : page) {
+            total += slot.length;
+        }
+        byte[] json = new byte[total];
+        int position = 0;
+        json[position++] = '[';
+        for (Slot slot : page) {
+            if (position > 1) {
+                json[position++] = ',';
+            }
+            slot.segment.buffer.get(slot.offset, json, position, slot.length);
+            position += slot.length;
+        }
+        json[position] = ']';
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    // Write one record to the current segment; null if it cannot be stored
+    private synchronized Slot append(long sequence, byte[] json) {
+        int recordLength = HEADER_BYTES + json.length;
+        if (recordLength > SEGMENT_BYTES) {
+            return null;
+        }
+        try {
+            if (current == null || current.position + recordLength > SEGMENT_BYTES
+                    || System.currentTimeMillis() - current.createdAt > SEGMENT_ROLL_MS) {
+                rollSegment();
+            }
+        } catch (IOException e) {
+            System.out.println("✗ Error creating hot-history segment: " + e.getMessage());
+            current = null;
+            return null;
+        }
+
+        int offset = current.position;
+        current.buffer.putInt(offset, json.length);
+        current.buffer.putLong(offset + Integer.BYTES, sequence);
+        current.buffer.put(offset + HEADER_BYTES, json, 0, json.length);
+        current.position += recordLength;
+        return new Slot(current, offset + HEADER_BYTES, json.length);
+    }
+
+    private void rollSegment() throws IOException {
+        long id = nextSegmentId++;
+        Path path = directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES));
+        }
+        segments.put(id, current);
+        evictionDue = true;
+    }
+
+    // Called with no tail lock held: eviction takes tail locks, appends take the store lock
+    private void maybeEvict() {
+        long now = System.currentTimeMillis();
+        if (!evictionDue && now - lastEvictionCheck < EVICTION_CHECK_MS) {
+            return;
+        }
+        evictionDue = false;
+        lastEvictionCheck = now;
+
+        List<Segment> evicted;
+        synchronized (this) {
+            // An idle segment past its roll age is retired so it can expire
+            if (current != null && now - current.createdAt > SEGMENT_ROLL_MS) {
+                current = null;
+            }
+            evicted = takeEvictableSegments(now);
+        }
+        if (evicted.isEmpty()) {
+            return;
+        }
+
+        long lastEvictedId = evicted.get(evicted.size() - 1).id;
+        for (Map.Entry<String, Tail> entry : tails.entrySet()) {
+            Tail tail = entry.getValue();
+            synchronized (tail) {
+                dropEvicted(tail, lastEvictedId);
+                if (tail.slots.isEmpty()) {
+                    tail.retired = true;
+                    tails.remove(entry.getKey(), tail);
+                }
+            }
+        }
+        for (Segment segment : evicted) {
+            deleteSegmentFile(segment);
+        }
+    }
+
+    // The oldest segments past retention or over the segment budget
+    private List<Segment> takeEvictableSegments(long now) {
+        long cutoff = now - RETENTION_MS;
+        List<Segment> evicted = new ArrayList<>();
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == current || (oldest.createdAt >= cutoff && segments.size() <= MAX_SEGMENTS)) {
+                break;
+            }
+            evicted.add(segments.pollFirstEntry().getValue());
+        }
+        return evicted;
+    }
+
+    // Cut the tail below its newest record in an evicted segment so it stays contiguous
+    private void dropEvicted(Tail tail, long lastEvictedId) {
+        Long cut = null;
+        for (Map.Entry<Long, Slot> slot : tail.slots.entrySet()) {
+            if (slot.getValue().segment.id <= lastEvictedId) {
+                cut = slot.getKey();
+            }
+        }
+        if (cut == null) {
+            return;
+        }
+        tail.slots.headMap(cut, true).clear();
+        tail.floor = tail.slots.isEmpty() ? Long.MAX_VALUE : tail.slots.firstKey();
+    }
+
+    private void deleteSegmentFile(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            System.out.println("✗ Error deleting hot-history segment: " + e.getMessage());
+        }
+    }
+}
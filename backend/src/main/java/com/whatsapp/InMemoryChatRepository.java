@@ -0,0 +1,181 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent in-memory chat store.
+ * Chats are indexed by chatId and by canonical pair key; callers always
+ * receive fresh Chat objects, as they would from the database.
+ */
+public class InMemoryChatRepository implements ChatRepository {
+    private final Map<String, ChatRecord> chatsById = new ConcurrentHashMap<>();
+    private final Map<String, ChatRecord> chatsByPairKey = new ConcurrentHashMap<>();
+    private final MessageRepository messageRepository;
+
+    private static class ChatRecord extends InMemoryConversation {
+        final String chatId;
+        final String userId1;
+        final String userId2;
+        final Date createdAt;
+
+        ChatRecord(Chat chat) {
+            this.chatId = chat.getChatId();
+            this.userId1 = chat.getUserId1();
+            this.userId2 = chat.getUserId2();
+            this.createdAt = chat.getCreatedAt();
+        }
+
+        boolean hasParticipant(String userId) {
+            return userId1.equals(userId) || userId2.equals(userId);
+        }
+    }
+
+    public InMemoryChatRepository(MessageRepository messageRepository) {
+        this.messageRepository = messageRepository;
+    }
+
+    @Override
+    public boolean saveChat(Chat chat) {
+        ChatRecord record = new ChatRecord(chat);
+        if (chatsByPairKey.putIfAbsent(chat.getPairKey(), record) != null) {
+            return false;
+        }
+        chatsById.put(chat.getChatId(), record);
+        persistUnsaved(record, chat);
+        return true;
+    }
+
+    @Override
+    public Chat getChatById(String chatId) {
+        return toChat(chatsById.get(chatId), true);
+    }
+
+    @Override
+    public Chat getChatByIdWithoutHistory(String chatId) {
+        return toChat(chatsById.get(chatId), false);
+    }
+
+    @Override
+    public Chat getChatBetweenUsers(String userId1, String userId2) {
+        return toChat(chatsByPairKey.get(Chat.pairKey(userId1, userId2)), true);
+    }
+
+    @Override
+    public Chat getPrivateChatWithoutHistory(String userId1, String userId2) {
+        return toChat(chatsByPairKey.get(Chat.pairKey(userId1, userId2)), false);
+    }
+
+    @Override
+    public Chat getOrCreatePrivateChat(String userId1, String userId2) {
+        ChatRecord record = chatsByPairKey.computeIfAbsent(Chat.pairKey(userId1, userId2), key -> {
+            ChatRecord created = new ChatRecord(new Chat(userId1, userId2));
+            chatsById.put(created.chatId, created);
+            return created;
+        });
+        return toChat(record, false);
+    }
+
+    @Override
+    public Chat getPrivateChat(String userId1, String userId2) {
+        return getChatBetweenUsers(userId1, userId2);
+    }
+
+    @Override
+    public List<Chat> getChatsByUser(String userId) {
+        List<Chat> chats = new ArrayList<>();
+        for (ChatRecord record : chatsById.values()) {
+            if (record.hasParticipant(userId)) {
+                chats.add(toChat(record, true));
+            }
+        }
+        return chats;
+    }
+
+    @Override
+    public long countChatsByUser(String userId) {
+        long count = 0;
+        for (ChatRecord record : chatsById.values()) {
+            if (record.hasParticipant(userId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<ConversationSummary> getChatSummariesByUser(String userId) {
+        List<ConversationSummary> summaries = new ArrayList<>();
+        for (ChatRecord record : chatsById.values()) {
+            if (record.hasParticipant(userId)) {
+                summaries.add(record.toSummary(record.chatId, null, Arrays.asList(record.userId1, record.userId2)));
+            }
+        }
+        summaries.sort(InMemoryConversation::byLastActivityDesc);
+        return summaries;
+    }
+
+    @Override
+    public boolean updateChat(Chat chat) {
+        // Chats that were never saved (e.g. created by the CLI) are inserted on first use
+        ChatRecord record = chatsById.computeIfAbsent(chat.getChatId(), id -> {
+            ChatRecord created = new ChatRecord(chat);
+            chatsByPairKey.putIfAbsent(chat.getPairKey(), created);
+            return created;
+        });
+        persistUnsaved(record, chat);
+        return true;
+    }
+
+    @Override
+    public boolean appendMessage(Chat chat, Message message) {
+        ChatRecord record = chatsById.get(chat.getChatId());
+        if (record == null) {
+            return false;
+        }
+        record.assignSequences(record.chatId, Collections.singletonList(message));
+        chat.addMessage(message);
+        return messageRepository.saveMessage(message);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> appendMessageAsync(Chat chat, Message message) {
+        return CompletableFuture.completedFuture(appendMessage(chat, message));
+    }
+
+    @Override
+    public boolean deleteChat(String chatId) {
+        ChatRecord record = chatsById.remove(chatId);
+        if (record != null) {
+            chatsByPairKey.remove(Chat.pairKey(record.userId1, record.userId2), record);
+        }
+        return true;
+    }
+
+    private void persistUnsaved(ChatRecord record, Chat chat) {
+        List<Message> unsaved = new ArrayList<>();
+        for (Message msg : chat.getMessages()) {
+            if (!msg.isPersisted()) {
+                unsaved.add(msg);
+            }
+        }
+        record.assignSequences(record.chatId, unsaved);
+        for (Message msg : unsaved) {
+            messageRepository.saveMessage(msg);
+        }
+    }
+
+    private Chat toChat(ChatRecord record, boolean withMessages) {
+        if (record == null) {
+            return null;
+        }
+        Chat chat = new Chat(record.chatId, record.userId1, record.userId2, record.createdAt);
+        if (withMessages) {
+            for (Message msg : messageRepository.getMessagesByConversation(record.chatId)) {
+                chat.addMessage(msg);
+            }
+        }
+        return chat;
+    }
+}
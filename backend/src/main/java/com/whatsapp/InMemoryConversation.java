@@ -0,0 +1,42 @@
+package com.whatsapp;
+
+import java.util.*;
+
+/**
+ * Sequence counter and summary fields shared by the in-memory chat and
+ * group records, mirroring what the Mongo repositories keep on the
+ * chat/group document.
+ */
+class InMemoryConversation {
+    private long lastSequence;
+    private long messageCount;
+    private String lastMessagePreview;
+    private String lastSenderId;
+    private Date lastActivityAt;
+
+    // Reserve sequence numbers for newMessages, bind them and refresh the summary
+    synchronized void assignSequences(String conversationId, List<Message> newMessages) {
+        for (Message msg : newMessages) {
+            msg.assignSequence(conversationId, ++lastSequence);
+        }
+        messageCount += newMessages.size();
+        if (!newMessages.isEmpty()) {
+            Message last = newMessages.get(newMessages.size() - 1);
+            lastMessagePreview = ConversationSummary.toPreview(last.getContent());
+            lastSenderId = last.getSenderId();
+            lastActivityAt = last.getTimestamp();
+        }
+    }
+
+    synchronized ConversationSummary toSummary(String conversationId, String title, List<String> participants) {
+        return new ConversationSummary(conversationId, title, participants, messageCount,
+                lastMessagePreview, lastSenderId, lastActivityAt);
+    }
+
+    // Newest activity first, conversations without messages last
+    static int byLastActivityDesc(ConversationSummary a, ConversationSummary b) {
+        if (a.getLastActivityAt() == null) return b.getLastActivityAt() == null ? 0 : 1;
+        if (b.getLastActivityAt() == null) return -1;
+        return b.getLastActivityAt().compareTo(a.getLastActivityAt());
+    }
+}
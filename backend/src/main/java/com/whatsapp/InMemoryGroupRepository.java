@@ -0,0 +1,176 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Concurrent in-memory group store.
+ * Callers always receive fresh Group objects, as they would from the database.
+ */
+public class InMemoryGroupRepository implements GroupRepository {
+    private final Map<String, GroupRecord> groupsById = new ConcurrentHashMap<>();
+    private final MessageRepository messageRepository;
+
+    private static class GroupRecord extends InMemoryConversation {
+        final String groupId;
+        final String adminId;
+        volatile String groupName;
+        final List<String> members = new CopyOnWriteArrayList<>();
+
+        GroupRecord(Group group) {
+            this.groupId = group.getGroupId();
+            this.adminId = group.getAdminId();
+            this.groupName = group.getGroupName();
+            this.members.addAll(group.getMembers());
+        }
+    }
+
+    public InMemoryGroupRepository(MessageRepository messageRepository) {
+        this.messageRepository = messageRepository;
+    }
+
+    @Override
+    public boolean saveGroup(Group group) {
+        GroupRecord record = new GroupRecord(group);
+        if (groupsById.putIfAbsent(group.getGroupId(), record) != null) {
+            return false;
+        }
+        persistUnsaved(record, group);
+        return true;
+    }
+
+    @Override
+    public Group getGroupById(String groupId) {
+        return toGroup(groupsById.get(groupId));
+    }
+
+    @Override
+    public Set<String> getGroupMembers(String groupId) {
+        GroupRecord record = groupsById.get(groupId);
+        return record != null ? new HashSet<>(record.members) : null;
+    }
+
+    @Override
+    public List<Group> getGroupsByUser(String userId) {
+        List<Group> groups = new ArrayList<>();
+        for (GroupRecord record : groupsById.values()) {
+            if (record.members.contains(userId)) {
+                groups.add(toGroup(record));
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public long countGroupsByUser(String userId) {
+        long count = 0;
+        for (GroupRecord record : groupsById.values()) {
+            if (record.members.contains(userId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<ConversationSummary> getGroupSummariesByUser(String userId) {
+        List<ConversationSummary> summaries = new ArrayList<>();
+        for (GroupRecord record : groupsById.values()) {
+            if (record.members.contains(userId)) {
+                summaries.add(record.toSummary(record.groupId, record.groupName, record.members));
+            }
+        }
+        summaries.sort(InMemoryConversation::byLastActivityDesc);
+        return summaries;
+    }
+
+    @Override
+    public List<Group> getAllGroups() {
+        List<Group> groups = new ArrayList<>();
+        for (GroupRecord record : groupsById.values()) {
+            groups.add(toGroup(record));
+        }
+        return groups;
+    }
+
+    @Override
+    public RecordCursor<Group> streamAllGroups(int batchSize) {
+        return RecordCursor.of(groupsById.values().stream().map(record -> toGroup(record, false)).iterator());
+    }
+
+    @Override
+    public boolean updateGroup(Group group) {
+        GroupRecord record = groupsById.get(group.getGroupId());
+        if (record == null) {
+            return false;
+        }
+        synchronized (record) {
+            record.groupName = group.getGroupName();
+            record.members.retainAll(group.getMembers());
+            for (String member : group.getMembers()) {
+                if (!record.members.contains(member)) {
+                    record.members.add(member);
+                }
+            }
+        }
+        persistUnsaved(record, group);
+        return true;
+    }
+
+    @Override
+    public boolean appendMessage(String groupId, Message message) {
+        GroupRecord record = groupsById.get(groupId);
+        if (record == null) {
+            return false;
+        }
+        record.assignSequences(groupId, Collections.singletonList(message));
+        return messageRepository.saveMessage(message);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> appendMessageAsync(String groupId, Message message) {
+        return CompletableFuture.completedFuture(appendMessage(groupId, message));
+    }
+
+    @Override
+    public boolean deleteGroup(String groupId) {
+        groupsById.remove(groupId);
+        return true;
+    }
+
+    private void persistUnsaved(GroupRecord record, Group group) {
+        List<Message> unsaved = new ArrayList<>();
+        for (Message msg : group.getMessages()) {
+            if (!msg.isPersisted()) {
+                unsaved.add(msg);
+            }
+        }
+        record.assignSequences(record.groupId, unsaved);
+        for (Message msg : unsaved) {
+            messageRepository.saveMessage(msg);
+        }
+    }
+
+    private Group toGroup(GroupRecord record) {
+        return toGroup(record, true);
+    }
+
+    private Group toGroup(GroupRecord record, boolean withMessages) {
+        if (record == null) {
+            return null;
+        }
+        Group group = new Group(record.groupId, record.groupName, record.adminId);
+        for (String member : record.members) {
+            group.addMember(member);
+        }
+        if (!withMessages) {
+            return group;
+        }
+        for (Message msg : messageRepository.getMessagesByConversation(record.groupId)) {
+            group.addMessage(msg);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,134 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Concurrent in-memory message store.
+ * Each conversation is a skip list keyed by sequence, so pages are
+ * sub-map views just like the (conversationId, sequence) index in Mongo.
+ * Writes are durable as soon as they return.
+ */
+public class InMemoryMessageRepository implements MessageRepository {
+    private final Map<String, Message> messagesById = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Long, Message>> conversations = new ConcurrentHashMap<>();
+    private final List<MessageBatchWriter.FlushListener> flushListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public boolean saveMessage(Message message) {
+        boolean saved = messagesById.putIfAbsent(message.getMessageId(), message) == null;
+        if (saved && message.isPersisted()) {
+            conversations.computeIfAbsent(message.getConversationId(), k -> new ConcurrentSkipListMap<>())
+                    .put(message.getSequence(), message);
+        }
+        for (MessageBatchWriter.FlushListener listener : flushListeners) {
+            listener.onFlush(1, saved ? 0 : 1, 0);
+        }
+        return saved;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> saveMessageAsync(Message message) {
+        return CompletableFuture.completedFuture(saveMessage(message));
+    }
+
+    @Override
+    public void flush() {
+        // Nothing is ever pending
+    }
+
+    @Override
+    public void addFlushListener(MessageBatchWriter.FlushListener listener) {
+        flushListeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        // No background resources
+    }
+
+    @Override
+    public Message getMessageById(String messageId) {
+        return messagesById.get(messageId);
+    }
+
+    @Override
+    public List<Message> getMessagesByConversation(String conversationId) {
+        ConcurrentSkipListMap<Long, Message> conversation = conversations.get(conversationId);
+        return conversation != null ? new ArrayList<>(conversation.values()) : new ArrayList<>();
+    }
+
+    @Override
+    public MessagePage getConversationPage(String conversationId, Long beforeSequence,
+                                           Long afterSequence, int limit) {
+        ConcurrentSkipListMap<Long, Message> conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            return new MessagePage(new ArrayList<>(), false);
+        }
+
+        ConcurrentNavigableMap<Long, Message> range = conversation;
+        if (beforeSequence != null) {
+            range = range.headMap(beforeSequence, false);
+        }
+        if (afterSequence != null) {
+            range = range.tailMap(afterSequence, false);
+        }
+
+        // Walk forward from an after-cursor, otherwise backward from the newest end
+        boolean forward = afterSequence != null && beforeSequence == null;
+        Iterator<Message> it = forward ? range.values().iterator() : range.descendingMap().values().iterator();
+        List<Message> messages = new ArrayList<>();
+        while (it.hasNext() && messages.size() < limit) {
+            messages.add(it.next());
+        }
+        boolean hasMore = it.hasNext();
+        if (!forward) {
+            Collections.reverse(messages);
+        }
+        return new MessagePage(messages, hasMore);
+    }
+
+    @Override
+    public List<Message> getMessagesBySender(String senderId) {
+        List<Message> messages = new ArrayList<>();
+        for (Message message : messagesById.values()) {
+            if (message.getSenderId().equals(senderId)) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public RecordCursor<Message> streamMessagesBySender(String senderId, int batchSize) {
+        return RecordCursor.of(messagesById.values().stream()
+                .filter(message -> message.getSenderId().equals(senderId))
+                .iterator());
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return new ArrayList<>(messagesById.values());
+    }
+
+    @Override
+    public RecordCursor<Message> streamAllMessages(int batchSize) {
+        return RecordCursor.of(messagesById.values().iterator());
+    }
+
+    @Override
+    public boolean deleteMessage(String messageId) {
+        Message message = messagesById.remove(messageId);
+        if (message != null && message.isPersisted()) {
+            ConcurrentSkipListMap<Long, Message> conversation = conversations.get(message.getConversationId());
+            if (conversation != null) {
+                conversation.remove(message.getSequence());
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,103 @@
+package com.whatsapp;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent in-memory user store with the same uniqueness rules as the
+ * Mongo indexes: one user per userId and per phone number.
+ * Users are copied on the way in and out so callers never share state.
+ */
+public class InMemoryUserRepository implements UserRepository {
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+    private final Map<String, String> userIdsByPhone = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized boolean saveUser(User user) {
+        if (usersById.containsKey(user.getUserId()) || userIdsByPhone.containsKey(user.getPhoneNumber())) {
+            return false;
+        }
+        usersById.put(user.getUserId(), copyOf(user));
+        userIdsByPhone.put(user.getPhoneNumber(), user.getUserId());
+        return true;
+    }
+
+    @Override
+    public User getUserById(String userId) {
+        User user = usersById.get(userId);
+        return user != null ? copyOf(user) : null;
+    }
+
+    @Override
+    public List<User> getUsersByIds(Collection<String> userIds) {
+        List<User> users = new ArrayList<>();
+        for (String userId : userIds) {
+            User user = usersById.get(userId);
+            if (user != null) {
+                users.add(copyOf(user));
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public User findByPhoneNumber(String phoneNumber) {
+        String userId = userIdsByPhone.get(phoneNumber);
+        return userId != null ? getUserById(userId) : null;
+    }
+
+    @Override
+    public Map<String, User> findByPhoneNumbers(Collection<String> phoneNumbers) {
+        Map<String, User> users = new HashMap<>();
+        for (String phoneNumber : phoneNumbers) {
+            User user = findByPhoneNumber(phoneNumber);
+            if (user != null) {
+                users.put(phoneNumber, user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        for (User user : usersById.values()) {
+            users.add(copyOf(user));
+        }
+        return users;
+    }
+
+    @Override
+    public RecordCursor<User> streamAllUsers(int batchSize) {
+        return RecordCursor.of(usersById.values().stream().map(this::copyOf).iterator());
+    }
+
+    @Override
+    public synchronized boolean updateUser(User user) {
+        User existing = usersById.get(user.getUserId());
+        if (existing == null) {
+            return true;
+        }
+        String ownerOfPhone = userIdsByPhone.get(user.getPhoneNumber());
+        if (ownerOfPhone != null && !ownerOfPhone.equals(user.getUserId())) {
+            return false;
+        }
+        userIdsByPhone.remove(existing.getPhoneNumber());
+        userIdsByPhone.put(user.getPhoneNumber(), user.getUserId());
+        usersById.put(user.getUserId(), copyOf(user));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteUser(String userId) {
+        User removed = usersById.remove(userId);
+        if (removed != null) {
+            userIdsByPhone.remove(removed.getPhoneNumber());
+        }
+        return true;
+    }
+
+    private User copyOf(User user) {
+        return new User(user.getUserId(), user.getProfilename(), user.getPhoneNumber(), user.getFriends());
+    }
+}
@@ -0,0 +1,68 @@
+package com.whatsapp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONObject;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets.
+ * Percentiles are reported as the upper bound of the bucket they fall in,
+ * which is accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 36;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0, unit.toMicros(duration));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts[bucket].increment();
+        total.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    // Upper bound in microseconds of the bucket holding the given percentile (0-100)
+    public long percentileMicros(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i].sum();
+            if (seen >= rank) {
+                return Math.min(1L << i, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public JSONObject toJson() {
+        long count = total.sum();
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+        json.put("meanMicros", count == 0 ? 0 : sumMicros.sum() / count);
+        json.put("p50Micros", percentileMicros(50));
+        json.put("p95Micros", percentileMicros(95));
+        json.put("p99Micros", percentileMicros(99));
+        json.put("maxMicros", maxMicros.get());
+        return json;
+    }
+}
@@ -9,6 +9,8 @@ public class Message {
     private Date timestamp;
     private String parentMessageId; // For replies
     private boolean isReply;
+    private String conversationId; // Owning chat or group
+    private long sequence;         // Position within the conversation, 0 until persisted
 
     public Message(String messageId, String senderId, String content) {
         this.messageId = messageId;
@@ -26,6 +28,25 @@ public class Message {
         this.isReply = true;
     }
 
+    // Constructor for loading from database
+    public Message(String messageId, String senderId, String content, Date timestamp,
+                   String parentMessageId, String conversationId, long sequence) {
+        this.messageId = messageId;
+        this.senderId = senderId;
+        this.content = content;
+        this.timestamp = timestamp != null ? timestamp : new Date();
+        this.parentMessageId = parentMessageId;
+        this.isReply = parentMessageId != null && !parentMessageId.isEmpty();
+        this.conversationId = conversationId;
+        this.sequence = sequence;
+    }
+
+    // Bind the message to its conversation once a sequence number has been allocated
+    public void assignSequence(String conversationId, long sequence) {
+        this.conversationId = conversationId;
+        this.sequence = sequence;
+    }
+
     // Getters
     public String getMessageId() {
         return messageId;
@@ -51,6 +72,18 @@ public class Message {
         return isReply;
     }
 
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isPersisted() {
+        return conversationId != null && sequence > 0;
+    }
+
     @Override
     public String toString() {
         return "[" + new java.text.SimpleDateFormat("HH:mm:ss").format(timestamp) + "] " + 
@@ -0,0 +1,308 @@
+package com.whatsapp;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.json.JSONArray;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold tier for conversation history.
+ * A background pass moves messages older than the archive age out of the
+ * messages collection into message_archive, in gzip-compressed segments of
+ * up to SEGMENT_SIZE consecutive messages of one conversation. Segments are
+ * located by the (conversationId, toSequence) index, so a conversation's
+ * history is its archived prefix followed by the hot messages.
+ *
+ * A segment is inserted before its messages are deleted from the hot
+ * collection, so every message is always readable from at least one tier.
+ */
+public class MessageArchive {
+    public static final String COLLECTION_NAME = "message_archive";
+    private static final int SEGMENT_SIZE = 500;
+    private static final int DEFAULT_ARCHIVE_AFTER_DAYS = 30;
+    private static final int DEFAULT_INTERVAL_MINUTES = 60;
+
+    private final MongoCollection<Document> archiveCollection;
+    private final MongoCollection<Message> messageCollection;
+    private ScheduledExecutorService archiver;
+
+    public MessageArchive(MongoCollection<Document> archiveCollection, MongoCollection<Message> messageCollection) {
+        this.archiveCollection = archiveCollection;
+        this.messageCollection = messageCollection;
+    }
+
+    /**
+     * Run an archive pass every MESSAGE_ARCHIVE_INTERVAL_MINUTES (default 60) for
+     * messages older than MESSAGE_ARCHIVE_AFTER_DAYS (default 30; 0 disables).
+     * Reads fall through to the archive either way.
+     */
+    public void startFromEnvironment() {
+        int afterDays = parseNonNegative("MESSAGE_ARCHIVE_AFTER_DAYS", DEFAULT_ARCHIVE_AFTER_DAYS);
+        int intervalMinutes = Math.max(1, parseNonNegative("MESSAGE_ARCHIVE_INTERVAL_MINUTES", DEFAULT_INTERVAL_MINUTES));
+        if (afterDays == 0 || archiver != null) {
+            return;
+        }
+        archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        archiver.scheduleWithFixedDelay(() -> {
+            Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(afterDays));
+            archiveOlderThan(cutoff);
+        }, 1, intervalMinutes, TimeUnit.MINUTES);
+        System.out.println("✓ Archiving messages older than " + afterDays + " days every " + intervalMinutes + " minutes");
+    }
+
+    public void close() {
+        if (archiver != null) {
+            archiver.shutdownNow();
+            archiver = null;
+        }
+    }
+
+    /**
+     * One archive pass over every conversation with messages older than cutoff.
+     * The conversations are found from the (timestamp, conversationId) index
+     * without reading any message. Returns the number of messages moved.
+     */
+    public int archiveOlderThan(Date cutoff) {
+        int archived = 0;
+        try {
+            for (String conversationId : messageCollection.distinct("conversationId",
+                    Filters.lt("timestamp", cutoff), String.class)) {
+                archived += archiveConversation(conversationId, cutoff);
+            }
+            if (archived > 0) {
+                System.out.println("✓ Archived " + archived + " messages older than " + cutoff);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error archiving messages: " + e.getMessage());
+        }
+        return archived;
+    }
+
+    // Archive the oldest run of a conversation's messages that are all older than cutoff
+    private int archiveConversation(String conversationId, Date cutoff) {
+        long archivedThrough = lastArchivedSequence(conversationId);
+        if (archivedThrough > 0) {
+            // Left behind when a previous pass stopped between insert and delete
+            messageCollection.deleteMany(Filters.and(
+                    Filters.eq("conversationId", conversationId),
+                    Filters.lte("sequence", archivedThrough)));
+        }
+
+        int archived = 0;
+        while (true) {
+            List<Message> segment = new ArrayList<>();
+            for (Message message : messageCollection.find(Filters.and(
+                    Filters.eq("conversationId", conversationId),
+                    Filters.gt("sequence", archivedThrough)))
+                    .sort(Sorts.ascending("sequence"))
+                    .limit(SEGMENT_SIZE)) {
+                // A message without a timestamp cannot be shown to be old; the archived prefix ends there
+                Date timestamp = message.getTimestamp();
+                if (timestamp == null || !timestamp.before(cutoff)) {
+                    break;
+                }
+                segment.add(message);
+            }
+            if (segment.isEmpty()) {
+                return archived;
+            }
+
+            long fromSequence = segment.get(0).getSequence();
+            long toSequence = segment.get(segment.size() - 1).getSequence();
+            insertSegment(conversationId, segment);
+            messageCollection.deleteMany(Filters.and(
+                    Filters.eq("conversationId", conversationId),
+                    Filters.gte("sequence", fromSequence),
+                    Filters.lte("sequence", toSequence)));
+
+            archived += segment.size();
+            archivedThrough = toSequence;
+            if (segment.size() < SEGMENT_SIZE) {
+                return archived;
+            }
+        }
+    }
+
+    private void insertSegment(String conversationId, List<Message> messages) {
+        JSONArray payload = new JSONArray();
+        for (Message message : messages) {
+            payload.put(MessagePage.encode(message));
+        }
+        Document segmentDoc = new Document()
+                .append("conversationId", conversationId)
+                .append("fromSequence", messages.get(0).getSequence())
+                .append("toSequence", messages.get(messages.size() - 1).getSequence())
+                .append("messageCount", messages.size())
+                .append("fromTimestamp", messages.get(0).getTimestamp())
+                .append("toTimestamp", messages.get(messages.size() - 1).getTimestamp())
+                .append("archivedAt", new Date())
+                .append("payload", new Binary(gzip(payload.toString())));
+        try {
+            archiveCollection.insertOne(segmentDoc);
+        } catch (MongoWriteException e) {
+            // Another instance archived the same run first
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Move every message of one conversation, hot and archived, into another
+     * with its sequence shifted by sequenceOffset. Archived messages return to
+     * the hot collection, which a later pass archives again. Used to merge
+     * duplicate conversations; repeating it after a partial run is safe.
+     */
+    public void moveConversation(String fromConversation, String toConversation, long sequenceOffset) {
+        long archivedThrough = lastArchivedSequence(fromConversation);
+        if (archivedThrough > 0) {
+            // Copies left behind by a pass that stopped between insert and delete
+            messageCollection.deleteMany(Filters.and(
+                    Filters.eq("conversationId", fromConversation),
+                    Filters.lte("sequence", archivedThrough)));
+        }
+        messageCollection.updateMany(
+                Filters.eq("conversationId", fromConversation),
+                Collections.singletonList(new Document("$set", new Document("conversationId", toConversation)
+                        .append("sequence", new Document("$add", Arrays.asList("$sequence", sequenceOffset))))));
+
+        for (Document segmentDoc : archiveCollection.find(Filters.eq("conversationId", fromConversation))
+                .sort(Sorts.ascending("toSequence"))) {
+            List<Message> segment;
+            try {
+                segment = decodeSegment(segmentDoc);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unreadable archive segment of " + fromConversation, e);
+            }
+            for (Message message : segment) {
+                message.assignSequence(toConversation, message.getSequence() + sequenceOffset);
+            }
+            try {
+                messageCollection.insertMany(segment, new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // Messages restored by an earlier, interrupted run are already there
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                        throw e;
+                    }
+                }
+            }
+            archiveCollection.deleteOne(Filters.eq("_id", segmentDoc.get("_id")));
+        }
+    }
+
+    private long lastArchivedSequence(String conversationId) {
+        Document last = archiveCollection.find(Filters.eq("conversationId", conversationId))
+                .projection(Projections.include("toSequence"))
+                .sort(Sorts.descending("toSequence"))
+                .first();
+        return last != null ? ((Number) last.get("toSequence")).longValue() : 0;
+    }
+
+    /**
+     * Archived messages with lowerExclusive < sequence < upperExclusive (either bound
+     * may be null), at most max of them, nearest the start of the walk first:
+     * the lowest sequences when ascending, the highest otherwise.
+     */
+    public List<Message> read(String conversationId, Long lowerExclusive, Long upperExclusive,
+                              boolean ascending, int max) {
+        List<Message> messages = new ArrayList<>();
+        try {
+            List<Bson> filters = new ArrayList<>();
+            filters.add(Filters.eq("conversationId", conversationId));
+            if (lowerExclusive != null) {
+                filters.add(Filters.gt("toSequence", lowerExclusive));
+            }
+            if (upperExclusive != null) {
+                filters.add(Filters.lt("fromSequence", upperExclusive));
+            }
+            for (Document segmentDoc : archiveCollection.find(Filters.and(filters))
+                    .sort(ascending ? Sorts.ascending("toSequence") : Sorts.descending("toSequence"))) {
+                List<Message> segment = decodeSegment(segmentDoc);
+                if (!ascending) {
+                    Collections.reverse(segment);
+                }
+                for (Message message : segment) {
+                    long sequence = message.getSequence();
+                    if ((lowerExclusive == null || sequence > lowerExclusive)
+                            && (upperExclusive == null || sequence < upperExclusive)) {
+                        messages.add(message);
+                        if (messages.size() >= max) {
+                            return messages;
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error reading message archive: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    // Every archived message of a conversation, in sequence order
+    public List<Message> readAll(String conversationId) {
+        return read(conversationId, null, null, true, Integer.MAX_VALUE);
+    }
+
+    private static List<Message> decodeSegment(Document segmentDoc) throws IOException {
+        Binary payload = segmentDoc.get("payload", Binary.class);
+        JSONArray array = new JSONArray(gunzip(payload.getData()));
+        List<Message> messages = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            messages.add(MessagePage.decode(array.getJSONObject(i)));
+        }
+        return messages;
+    }
+
+    private static byte[] gzip(String json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not compress archive segment", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int parseNonNegative(String envName, int defaultValue) {
+        String value = System.getenv(envName);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Warning: Invalid " + envName + " value '" + value + "', using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
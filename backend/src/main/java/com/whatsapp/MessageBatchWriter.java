@@ -0,0 +1,263 @@
+package com.whatsapp;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Write-behind pipeline for message inserts.
+ * Callers from any thread enqueue messages; a single writer thread groups
+ * them into batches bounded by size and time window and stores each batch
+ * with one insertMany. Every enqueued message gets a future that completes
+ * once its batch is acknowledged by the database.
+ *
+ * Messages queued with enqueueRetrying are already safe in the write-ahead
+ * log, so a failed insert is queued again after a growing delay instead of
+ * being reported, until it is stored or the writer closes. A duplicate
+ * messageId on such a write means an earlier attempt already landed, so it
+ * counts as stored; any other duplicate key is final and reported as a failure.
+ */
+public class MessageBatchWriter {
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final long MAX_BATCH_DELAY_MS = 5;
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final long RETRY_INITIAL_DELAY_MS = 100;
+    private static final long RETRY_MAX_DELAY_MS = 30_000;
+    // Named in duplicate key errors raised by the unique messageId index
+    private static final String MESSAGE_ID_INDEX = "messageId_unique";
+
+    private final MongoCollection<Message> collection;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<FlushListener> flushListeners = new CopyOnWriteArrayList<>();
+    private final Thread writerThread;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-batch-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = true;
+
+    /**
+     * Notified after every batch reaches the database
+     */
+    public interface FlushListener {
+        void onFlush(int batchSize, int failed, long elapsedMillis);
+    }
+
+    private static class PendingWrite {
+        final Message message;
+        final CompletableFuture<Boolean> ack;
+        final boolean retry;
+        int attempts;
+
+        PendingWrite(Message message, CompletableFuture<Boolean> ack, boolean retry) {
+            this.message = message;
+            this.ack = ack;
+            this.retry = retry;
+        }
+
+        boolean isFlushMarker() {
+            return message == null;
+        }
+    }
+
+    public MessageBatchWriter(MongoCollection<Message> collection) {
+        this.collection = collection;
+        this.writerThread = new Thread(this::runWriter, "message-batch-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queue a message; blocks only while the queue is full
+     */
+    public CompletableFuture<Boolean> enqueue(Message message) {
+        return enqueue(new PendingWrite(message, new CompletableFuture<>(), false));
+    }
+
+    /**
+     * Queue a message that is already durable elsewhere; failed inserts are retried
+     * with backoff, so the future completes false only on a conflicting key or close
+     */
+    public CompletableFuture<Boolean> enqueueRetrying(Message message) {
+        return enqueue(new PendingWrite(message, new CompletableFuture<>(), true));
+    }
+
+    private CompletableFuture<Boolean> enqueue(PendingWrite pending) {
+        if (!running) {
+            pending.ack.complete(false);
+            return pending.ack;
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.ack.complete(false);
+        }
+        return pending.ack;
+    }
+
+    /**
+     * Write everything queued so far and wait for it to be acknowledged
+     */
+    public void flush() {
+        if (!writerThread.isAlive()) {
+            return;
+        }
+        CompletableFuture<Boolean> marker = new CompletableFuture<>();
+        try {
+            queue.put(new PendingWrite(null, marker, false));
+            marker.get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.out.println("✗ Error flushing message batch: " + e.getMessage());
+        }
+    }
+
+    public void addFlushListener(FlushListener listener) {
+        flushListeners.add(listener);
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Flush pending messages and stop the writer thread
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        flush();
+        running = false;
+        writerThread.interrupt();
+        // Retries still waiting fail now; their messages stay in the write-ahead log
+        for (Runnable retry : retryScheduler.shutdownNow()) {
+            retry.run();
+        }
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running) {
+            try {
+                PendingWrite first = queue.take();
+                batch.add(first);
+
+                // Keep gathering until the batch is full, the window closes or a flush is requested
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MS);
+                while (!first.isFlushMarker() && batch.size() < MAX_BATCH_SIZE) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    if (next.isFlushMarker()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            }
+
+            writeBatch(batch);
+            batch.clear();
+        }
+
+        // Drain whatever arrived while shutting down
+        queue.drainTo(batch);
+        writeBatch(batch);
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        List<PendingWrite> writes = new ArrayList<>(batch.size());
+        List<Message> documents = new ArrayList<>(batch.size());
+        for (PendingWrite pending : batch) {
+            if (!pending.isFlushMarker()) {
+                writes.add(pending);
+                documents.add(pending.message);
+            }
+        }
+
+        Set<Integer> failedIndexes = new HashSet<>();
+        Set<Integer> duplicateIndexes = new HashSet<>();
+        Set<Integer> alreadyStoredIndexes = new HashSet<>();
+        long start = System.currentTimeMillis();
+        if (!documents.isEmpty()) {
+            try {
+                collection.insertMany(documents, new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    failedIndexes.add(error.getIndex());
+                    if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                        duplicateIndexes.add(error.getIndex());
+                        if (error.getMessage() != null && error.getMessage().contains(MESSAGE_ID_INDEX)) {
+                            alreadyStoredIndexes.add(error.getIndex());
+                        }
+                    }
+                }
+                System.out.println("✗ Error saving message batch: " + failedIndexes.size() + " of "
+                        + documents.size() + " failed");
+            } catch (Exception e) {
+                for (int i = 0; i < documents.size(); i++) {
+                    failedIndexes.add(i);
+                }
+                System.out.println("✗ Error saving message batch: " + e.getMessage());
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        for (int i = 0; i < writes.size(); i++) {
+            PendingWrite write = writes.get(i);
+            if (!failedIndexes.contains(i) || (write.retry && alreadyStoredIndexes.contains(i))) {
+                write.ack.complete(true);
+            } else if (write.retry && !duplicateIndexes.contains(i) && running) {
+                scheduleRetry(write);
+            } else {
+                write.ack.complete(false);
+            }
+        }
+        if (!documents.isEmpty()) {
+            for (FlushListener listener : flushListeners) {
+                listener.onFlush(documents.size(), failedIndexes.size(), elapsed);
+            }
+        }
+
+        // Flush markers complete only after every write queued before them
+        for (PendingWrite pending : batch) {
+            if (pending.isFlushMarker()) {
+                pending.ack.complete(true);
+            }
+        }
+    }
+
+    // Queue a failed write again after a delay that doubles with every attempt
+    private void scheduleRetry(PendingWrite write) {
+        long delay = Math.min(RETRY_INITIAL_DELAY_MS << Math.min(write.attempts, 20), RETRY_MAX_DELAY_MS);
+        write.attempts++;
+        try {
+            retryScheduler.schedule(() -> {
+                if (!running || !queue.offer(write)) {
+                    // Closed, or the queue is full: try again later rather than block the scheduler
+                    if (running) {
+                        scheduleRetry(write);
+                    } else {
+                        write.ack.complete(false);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            write.ack.complete(false);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.whatsapp;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import java.util.*;
+
+/**
+ * Message documents of the messages collection. conversationId and sequence
+ * are written only once the message has been bound to its conversation.
+ */
+public class MessageCodec implements Codec<Message> {
+    @Override
+    public void encode(BsonWriter writer, Message message, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        DomainCodecs.writeString(writer, "messageId", message.getMessageId());
+        DomainCodecs.writeString(writer, "senderId", message.getSenderId());
+        DomainCodecs.writeString(writer, "content", message.getContent());
+        DomainCodecs.writeDate(writer, "timestamp", message.getTimestamp());
+        DomainCodecs.writeString(writer, "parentMessageId", message.getParentMessageId());
+        writer.writeBoolean("isReply", message.isReply());
+        if (message.isPersisted()) {
+            writer.writeString("conversationId", message.getConversationId());
+            writer.writeInt64("sequence", message.getSequence());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Message decode(BsonReader reader, DecoderContext decoderContext) {
+        String messageId = null;
+        String senderId = null;
+        String content = null;
+        Date timestamp = null;
+        String parentMessageId = null;
+        String conversationId = null;
+        long sequence = 0;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "messageId": messageId = DomainCodecs.readString(reader); break;
+                case "senderId": senderId = DomainCodecs.readString(reader); break;
+                case "content": content = DomainCodecs.readString(reader); break;
+                case "timestamp": timestamp = DomainCodecs.readDate(reader); break;
+                case "parentMessageId": parentMessageId = DomainCodecs.readString(reader); break;
+                case "conversationId": conversationId = DomainCodecs.readString(reader); break;
+                case "sequence": sequence = DomainCodecs.readLong(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new Message(messageId, senderId, content, timestamp, parentMessageId, conversationId, sequence);
+    }
+
+    @Override
+    public Class<Message> getEncoderClass() {
+        return Message.class;
+    }
+}
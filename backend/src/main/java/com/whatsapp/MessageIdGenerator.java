@@ -0,0 +1,94 @@
+package com.whatsapp;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free generator of time-ordered message IDs.
+ * An ID packs 41 bits of milliseconds since EPOCH_MILLIS, a 10-bit node id and
+ * a 12-bit counter into a long, written as "MSG-" plus 16 hex digits, so IDs
+ * from one node sort (as strings or numbers) in creation order and IDs from
+ * different nodes sort by creation time to within clock skew.
+ *
+ * The time and counter share one AtomicLong updated by compare-and-set. When
+ * the counter of a millisecond runs out, or the wall clock steps back, IDs
+ * carry on from the last issued time instead of waiting or repeating.
+ */
+public class MessageIdGenerator {
+    public static final String PREFIX = "MSG-";
+    // 2024-01-01T00:00:00Z; 41 bits of milliseconds last until 2093
+    private static final long EPOCH_MILLIS = 1704067200000L;
+    private static final int NODE_BITS = 10;
+    private static final int COUNTER_BITS = 12;
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+
+    private static final MessageIdGenerator DEFAULT = new MessageIdGenerator(nodeIdFromEnvironment());
+
+    private final long nodeId;
+    // (milliseconds since EPOCH_MILLIS << COUNTER_BITS) | counter of the last ID issued
+    private final AtomicLong lastState = new AtomicLong();
+
+    public MessageIdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+
+    // Next ID from the process-wide generator
+    public static String nextMessageId() {
+        return DEFAULT.nextId();
+    }
+
+    public String nextId() {
+        return format(nextLong());
+    }
+
+    public long nextLong() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << COUNTER_BITS;
+        long state = lastState.updateAndGet(last -> Math.max(now, last + 1));
+        long millis = state >>> COUNTER_BITS;
+        long counter = state & COUNTER_MASK;
+        return (millis << (NODE_BITS + COUNTER_BITS)) | (nodeId << COUNTER_BITS) | counter;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    // Creation time encoded in an ID from this generator
+    public static long timestampOf(String messageId) {
+        long id = Long.parseUnsignedLong(messageId.substring(PREFIX.length()), 16);
+        return (id >>> (NODE_BITS + COUNTER_BITS)) + EPOCH_MILLIS;
+    }
+
+    private static String format(long id) {
+        String hex = Long.toHexString(id);
+        return PREFIX + "0".repeat(16 - hex.length()) + hex;
+    }
+
+    // MESSAGE_NODE_ID (0-1023) names this node; without it one is derived from host and pid
+    private static long nodeIdFromEnvironment() {
+        String value = System.getenv("MESSAGE_NODE_ID");
+        if (value != null && !value.isEmpty()) {
+            try {
+                long nodeId = Long.parseLong(value.trim());
+                if (nodeId >= 0 && nodeId <= MAX_NODE_ID) {
+                    return nodeId;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the derived id
+            }
+            System.out.println("Warning: Invalid MESSAGE_NODE_ID value '" + value + "', deriving one from host and pid");
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        String identity = host + "/" + ProcessHandle.current().pid();
+        return (identity.hashCode() & 0x7fffffff) % (MAX_NODE_ID + 1);
+    }
+}
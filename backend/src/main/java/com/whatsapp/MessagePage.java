@@ -0,0 +1,114 @@
+package com.whatsapp;
+
+import java.util.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * One page of a conversation's history, in ascending sequence order.
+ * The oldest and newest sequence numbers are the cursors for the
+ * neighbouring pages.
+ *
+ * A page is either a list of Message objects or, when served from the
+ * hot-history store, the already-encoded JSON array of the API messages;
+ * each form is derived from the other only when asked for.
+ */
+public class MessagePage {
+    private List<Message> messages;
+    private String encodedMessages;
+    private int size;
+    private long oldestSequence;
+    private long newestSequence;
+    private boolean hasMore;
+
+    public MessagePage(List<Message> messages, boolean hasMore) {
+        this.messages = messages;
+        this.hasMore = hasMore;
+        this.size = messages.size();
+        this.oldestSequence = messages.isEmpty() ? 0 : messages.get(0).getSequence();
+        this.newestSequence = messages.isEmpty() ? 0 : messages.get(messages.size() - 1).getSequence();
+    }
+
+    public MessagePage(String encodedMessages, int size, long oldestSequence, long newestSequence, boolean hasMore) {
+        this.encodedMessages = encodedMessages;
+        this.size = size;
+        this.oldestSequence = oldestSequence;
+        this.newestSequence = newestSequence;
+        this.hasMore = hasMore;
+    }
+
+    public List<Message> getMessages() {
+        if (messages == null) {
+            messages = decode(new JSONArray(encodedMessages));
+        }
+        return new ArrayList<>(messages);
+    }
+
+    // The page as the JSON array returned by /api/chats/messages
+    public String toJson() {
+        if (encodedMessages == null) {
+            JSONArray array = new JSONArray();
+            for (Message msg : messages) {
+                array.put(encode(msg));
+            }
+            encodedMessages = array.toString();
+        }
+        return encodedMessages;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // True when more messages exist beyond this page in the direction it was read
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public long getOldestSequence() {
+        return oldestSequence;
+    }
+
+    public long getNewestSequence() {
+        return newestSequence;
+    }
+
+    // API representation of a single message
+    public static JSONObject encode(Message msg) {
+        JSONObject msgObj = new JSONObject();
+        msgObj.put("messageId", msg.getMessageId());
+        msgObj.put("senderId", msg.getSenderId());
+        msgObj.put("content", msg.getContent());
+        msgObj.put("timestamp", msg.getTimestamp().getTime());
+        msgObj.put("isReply", msg.isReply());
+        msgObj.put("sequence", msg.getSequence());
+        if (msg.getConversationId() != null) {
+            msgObj.put("conversationId", msg.getConversationId());
+        }
+        if (msg.getParentMessageId() != null) {
+            msgObj.put("parentMessageId", msg.getParentMessageId());
+        }
+        return msgObj;
+    }
+
+    // Inverse of encode
+    public static Message decode(JSONObject msgObj) {
+        return new Message(
+                msgObj.getString("messageId"),
+                msgObj.getString("senderId"),
+                msgObj.getString("content"),
+                new Date(msgObj.getLong("timestamp")),
+                msgObj.optString("parentMessageId", null),
+                msgObj.optString("conversationId", null),
+                msgObj.getLong("sequence")
+        );
+    }
+
+    private static List<Message> decode(JSONArray array) {
+        List<Message> decoded = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            decoded.add(decode(array.getJSONObject(i)));
+        }
+        return decoded;
+    }
+}
@@ -1,100 +1,49 @@
 package com.whatsapp;
 
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Filters;
-import org.bson.Document;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-public class MessageRepository {
-    private MongoCollection<Document> messageCollection;
-    private static final String COLLECTION_NAME = "messages";
+/**
+ * Storage for messages, addressed by messageId or by (conversationId, sequence).
+ * Implemented by MongoMessageRepository and InMemoryMessageRepository.
+ * The *Async read variants run the blocking call on RepositoryExecutor.
+ */
+public interface MessageRepository {
+    // Store a message and wait until it is durable
+    boolean saveMessage(Message message);
 
-    public MessageRepository() {
-        this.messageCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME);
-    }
+    // Store a message; the future completes with true once it is durable
+    CompletableFuture<Boolean> saveMessageAsync(Message message);
 
-    // Push Message to Database
-    public boolean saveMessage(Message message) {
-        try {
-            Document messageDoc = new Document()
-                    .append("messageId", message.getMessageId())
-                    .append("senderId", message.getSenderId())
-                    .append("content", message.getContent())
-                    .append("timestamp", message.getTimestamp())
-                    .append("parentMessageId", message.getParentMessageId())
-                    .append("isReply", message.isReply());
+    // Make every message accepted so far durable
+    void flush();
 
-            messageCollection.insertOne(messageDoc);
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error saving message: " + e.getMessage());
-            return false;
-        }
-    }
+    void addFlushListener(MessageBatchWriter.FlushListener listener);
 
-    // Pull Message from Database
-    public Message getMessageById(String messageId) {
-        try {
-            Document messageDoc = messageCollection.find(Filters.eq("messageId", messageId)).first();
-            
-            if (messageDoc != null) {
-                return documentToMessage(messageDoc);
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving message: " + e.getMessage());
-        }
-        return null;
-    }
+    // Flush and release background resources
+    void close();
 
-    // Get messages by sender
-    public List<Message> getMessagesBySender(String senderId) {
-        List<Message> messages = new ArrayList<>();
-        try {
-            for (Document messageDoc : messageCollection.find(Filters.eq("senderId", senderId))) {
-                messages.add(documentToMessage(messageDoc));
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving messages: " + e.getMessage());
-        }
-        return messages;
-    }
+    Message getMessageById(String messageId);
 
-    // Get all messages
-    public List<Message> getAllMessages() {
-        List<Message> messages = new ArrayList<>();
-        try {
-            for (Document messageDoc : messageCollection.find()) {
-                messages.add(documentToMessage(messageDoc));
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving all messages: " + e.getMessage());
-        }
-        return messages;
-    }
+    // Full history of a chat or group, ordered by sequence
+    List<Message> getMessagesByConversation(String conversationId);
 
-    // Delete Message
-    public boolean deleteMessage(String messageId) {
-        try {
-            messageCollection.deleteOne(Filters.eq("messageId", messageId));
-            System.out.println("✓ Message deleted from database: " + messageId);
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error deleting message: " + e.getMessage());
-            return false;
-        }
+    // One page of a conversation in ascending sequence order; see MessagePage
+    MessagePage getConversationPage(String conversationId, Long beforeSequence, Long afterSequence, int limit);
+
+    default CompletableFuture<MessagePage> getConversationPageAsync(String conversationId, Long beforeSequence,
+                                                                    Long afterSequence, int limit) {
+        return RepositoryExecutor.supply(() -> getConversationPage(conversationId, beforeSequence, afterSequence, limit));
     }
 
-    // Helper method to convert Document to Message
-    private Message documentToMessage(Document doc) {
-        String messageId = doc.getString("messageId");
-        String senderId = doc.getString("senderId");
-        String content = doc.getString("content");
-        String parentMessageId = doc.getString("parentMessageId");
+    List<Message> getMessagesBySender(String senderId);
 
-        if (parentMessageId != null && !parentMessageId.isEmpty()) {
-            return new Message(messageId, senderId, content, parentMessageId);
-        } else {
-            return new Message(messageId, senderId, content);
-        }
-    }
+    // Cursor-backed variant of getMessagesBySender for results too large to hold in memory
+    RecordCursor<Message> streamMessagesBySender(String senderId, int batchSize);
+
+    List<Message> getAllMessages();
+
+    RecordCursor<Message> streamAllMessages(int batchSize);
+
+    boolean deleteMessage(String messageId);
 }
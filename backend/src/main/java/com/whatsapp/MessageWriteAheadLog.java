@@ -0,0 +1,350 @@
+package com.whatsapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.json.JSONObject;
+
+/**
+ * Local append-only log of accepted messages.
+ * A single writer thread appends records in groups and issues one fsync per
+ * group, so a message counts as durable once its group reaches disk, before
+ * any database round-trip. The log is split into segments; a segment is
+ * deleted once every message in it has been acknowledged by the database.
+ * Segments left over from a crash are replayed on startup.
+ *
+ * Record layout: [int payloadLength][long crc32][payload: message JSON, UTF-8]
+ */
+public class MessageWriteAheadLog {
+    private static final int MAX_GROUP_SIZE = 256;
+    private static final long MAX_GROUP_DELAY_MS = 2;
+    private static final long MAX_SEGMENT_BYTES = 16L * 1024 * 1024;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+    private final Map<Long, AtomicInteger> unappliedBySegment = new ConcurrentHashMap<>();
+    private final List<Path> recoveredSegments = new ArrayList<>();
+    private final Thread writerThread;
+    private FileChannel channel;
+    private volatile long currentSegment;
+    private volatile boolean running = true;
+
+    private static class PendingAppend {
+        final byte[] record;
+        final CompletableFuture<Long> appended;
+
+        PendingAppend(byte[] record, CompletableFuture<Long> appended) {
+            this.record = record;
+            this.appended = appended;
+        }
+
+        boolean isFlushMarker() {
+            return record == null;
+        }
+    }
+
+    public MessageWriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        // Anything already on disk was never acknowledged by the database
+        long lastSegment = 0;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                recoveredSegments.add(segment);
+                lastSegment = Math.max(lastSegment, segmentId(segment));
+            }
+        }
+        recoveredSegments.sort(Comparator.comparingLong(MessageWriteAheadLog::segmentId));
+
+        openSegment(lastSegment + 1);
+        this.writerThread = new Thread(this::runWriter, "message-wal-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Messages from segments left by a previous run, in append order.
+     * A torn record at the end of a segment ends that segment.
+     */
+    public List<Message> readRecovered() {
+        List<Message> messages = new ArrayList<>();
+        for (Path segment : recoveredSegments) {
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                while (true) {
+                    header.clear();
+                    if (readFully(in, header) < HEADER_BYTES) break;
+                    header.flip();
+                    int length = header.getInt();
+                    long checksum = header.getLong();
+                    if (length <= 0 || length > in.size() - in.position()) break;
+
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    if (readFully(in, payload) < length) break;
+                    byte[] bytes = payload.array();
+                    if (crc(bytes) != checksum) break;
+                    messages.add(fromRecord(bytes));
+                }
+            } catch (IOException e) {
+                System.out.println("✗ Error reading write-ahead log segment " + segment + ": " + e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Drop the segments returned by readRecovered once they are replayed
+     */
+    public void discardRecovered() {
+        for (Path segment : recoveredSegments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                System.out.println("✗ Error deleting write-ahead log segment " + segment + ": " + e.getMessage());
+            }
+        }
+        recoveredSegments.clear();
+    }
+
+    /**
+     * Append a message; the future completes with its segment id once fsynced
+     */
+    public CompletableFuture<Long> append(Message message) {
+        CompletableFuture<Long> appended = new CompletableFuture<>();
+        if (!running) {
+            appended.completeExceptionally(new IOException("Write-ahead log is closed"));
+            return appended;
+        }
+        queue.add(new PendingAppend(toRecord(message), appended));
+        return appended;
+    }
+
+    /**
+     * Record that the database has acknowledged one message from segmentId
+     */
+    public void markApplied(long segmentId) {
+        AtomicInteger unapplied = unappliedBySegment.get(segmentId);
+        if (unapplied != null && unapplied.decrementAndGet() == 0 && segmentId != currentSegment) {
+            deleteSegment(segmentId);
+        }
+    }
+
+    /**
+     * Wait until everything appended so far is on disk
+     */
+    public void flush() {
+        if (!writerThread.isAlive()) {
+            return;
+        }
+        CompletableFuture<Long> marker = new CompletableFuture<>();
+        queue.add(new PendingAppend(null, marker));
+        try {
+            marker.get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.out.println("✗ Error flushing write-ahead log: " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        if (!running) {
+            return;
+        }
+        flush();
+        running = false;
+
+        // Wake the writer with an empty marker rather than an interrupt,
+        // which would close the FileChannel under it
+        queue.add(new PendingAppend(null, new CompletableFuture<>()));
+        try {
+            writerThread.join(5000);
+            channel.close();
+
+            // A clean shutdown with everything acknowledged leaves nothing to replay
+            AtomicInteger unapplied = unappliedBySegment.get(currentSegment);
+            if (unapplied == null || unapplied.get() == 0) {
+                deleteSegment(currentSegment);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("✗ Error closing write-ahead log: " + e.getMessage());
+        }
+    }
+
+    private void runWriter() {
+        List<PendingAppend> group = new ArrayList<>(MAX_GROUP_SIZE);
+        while (running) {
+            try {
+                PendingAppend first = queue.take();
+                group.add(first);
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_GROUP_DELAY_MS);
+                while (!first.isFlushMarker() && group.size() < MAX_GROUP_SIZE) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingAppend next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                    if (next.isFlushMarker()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            }
+
+            writeGroup(group);
+            group.clear();
+        }
+        queue.drainTo(group);
+        writeGroup(group);
+    }
+
+    private void writeGroup(List<PendingAppend> group) {
+        List<PendingAppend> appends = new ArrayList<>(group.size());
+        for (PendingAppend pending : group) {
+            if (!pending.isFlushMarker()) {
+                appends.add(pending);
+            }
+        }
+
+        long segment = currentSegment;
+        if (!appends.isEmpty()) {
+            try {
+                ByteBuffer[] buffers = new ByteBuffer[appends.size()];
+                for (int i = 0; i < appends.size(); i++) {
+                    buffers[i] = ByteBuffer.wrap(appends.get(i).record);
+                }
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                channel.force(false);
+
+                unappliedBySegment.computeIfAbsent(segment, k -> new AtomicInteger()).addAndGet(appends.size());
+                for (PendingAppend pending : appends) {
+                    pending.appended.complete(segment);
+                }
+                if (channel.size() >= MAX_SEGMENT_BYTES) {
+                    rollSegment();
+                }
+            } catch (IOException e) {
+                System.out.println("✗ Error writing write-ahead log: " + e.getMessage());
+                for (PendingAppend pending : appends) {
+                    pending.appended.completeExceptionally(e);
+                }
+            }
+        }
+
+        for (PendingAppend pending : group) {
+            if (pending.isFlushMarker()) {
+                pending.appended.complete(segment);
+            }
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        long previous = currentSegment;
+        channel.close();
+        openSegment(previous + 1);
+        AtomicInteger unapplied = unappliedBySegment.get(previous);
+        if (unapplied == null || unapplied.get() == 0) {
+            deleteSegment(previous);
+        }
+    }
+
+    private void openSegment(long segmentId) throws IOException {
+        channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentSegment = segmentId;
+    }
+
+    // Only ever called for segments that are no longer being appended to
+    private void deleteSegment(long segmentId) {
+        unappliedBySegment.remove(segmentId);
+        try {
+            Files.deleteIfExists(segmentPath(segmentId));
+        } catch (IOException e) {
+            System.out.println("✗ Error deleting write-ahead log segment: " + e.getMessage());
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%020d%s", segmentId, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentId(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static byte[] toRecord(Message message) {
+        JSONObject json = new JSONObject();
+        json.put("messageId", message.getMessageId());
+        json.put("senderId", message.getSenderId());
+        json.put("content", message.getContent());
+        json.put("timestamp", message.getTimestamp().getTime());
+        json.put("parentMessageId", message.getParentMessageId() != null ? message.getParentMessageId() : "");
+        json.put("conversationId", message.getConversationId() != null ? message.getConversationId() : "");
+        json.put("sequence", message.getSequence());
+        byte[] payload = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        record.putInt(payload.length);
+        record.putLong(crc(payload));
+        record.put(payload);
+        return record.array();
+    }
+
+    private static Message fromRecord(byte[] payload) {
+        JSONObject json = new JSONObject(new String(payload, StandardCharsets.UTF_8));
+        String parentMessageId = json.optString("parentMessageId", "");
+        String conversationId = json.optString("conversationId", "");
+        return new Message(
+                json.getString("messageId"),
+                json.getString("senderId"),
+                json.getString("content"),
+                new Date(json.getLong("timestamp")),
+                parentMessageId.isEmpty() ? null : parentMessageId,
+                conversationId.isEmpty() ? null : conversationId,
+                json.getLong("sequence")
+        );
+    }
+}
@@ -0,0 +1,395 @@
+package com.whatsapp;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class MongoChatRepository implements ChatRepository {
+    private MongoCollection<Document> chatCollection;
+    // The same collection decoded by ChatCodec, for reads that build Chat objects
+    private MongoCollection<Chat> typedChatCollection;
+    private MessageRepository messageRepository;
+    private MongoMessageRepository legacyMessageRepository;
+    private static final String COLLECTION_NAME = "chats";
+
+    // Share one MessageRepository so every chat write goes through the same batch pipeline
+    public MongoChatRepository(MongoMessageRepository messageRepository) {
+        this(messageRepository, messageRepository);
+    }
+
+    // messageRepository may front the Mongo one (e.g. with the hot-history store);
+    // legacy message adoption always goes straight to Mongo
+    public MongoChatRepository(MessageRepository messageRepository, MongoMessageRepository legacyMessageRepository) {
+        this.chatCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME);
+        this.typedChatCollection = chatCollection.withDocumentClass(Chat.class);
+        this.messageRepository = messageRepository;
+        this.legacyMessageRepository = legacyMessageRepository;
+        migrateLegacyChats();
+    }
+
+    // Push Chat to Database
+    @Override
+    public boolean saveChat(Chat chat) {
+        try {
+            List<Message> unsaved = getUnsavedMessages(chat.getMessages());
+            long sequence = 0;
+            for (Message msg : unsaved) {
+                msg.assignSequence(chat.getChatId(), ++sequence);
+            }
+
+            Document chatDoc = new Document()
+                    .append("chatId", chat.getChatId())
+                    .append("userId1", chat.getUserId1())
+                    .append("userId2", chat.getUserId2())
+                    .append("pairKey", chat.getPairKey())
+                    .append("lastSequence", sequence)
+                    .append("messageCount", sequence)
+                    .append("createdAt", chat.getCreatedAt());
+
+            if (!unsaved.isEmpty()) {
+                Message last = unsaved.get(unsaved.size() - 1);
+                chatDoc.append("lastMessagePreview", ConversationSummary.toPreview(last.getContent()))
+                       .append("lastSenderId", last.getSenderId())
+                       .append("lastActivityAt", last.getTimestamp());
+            }
+
+            chatCollection.insertOne(chatDoc);
+            
+            // Save all messages
+            for (Message msg : unsaved) {
+                messageRepository.saveMessage(msg);
+            }
+            
+            System.out.println("✓ Chat saved to database: " + chat.getChatId());
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error saving chat: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Pull Chat from Database
+    @Override
+    public Chat getChatById(String chatId) {
+        try {
+            Chat chat = typedChatCollection.find(Filters.eq("chatId", chatId)).first();
+            
+            if (chat != null) {
+                return withHistory(chat);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving chat: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Pull Chat from Database without loading its message history
+    @Override
+    public Chat getChatByIdWithoutHistory(String chatId) {
+        try {
+            return typedChatCollection.find(Filters.eq("chatId", chatId)).first();
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving chat: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Get chat between two users
+    @Override
+    public Chat getChatBetweenUsers(String userId1, String userId2) {
+        try {
+            Chat chat = typedChatCollection.find(
+                    Filters.eq("pairKey", Chat.pairKey(userId1, userId2))
+            ).first();
+            
+            if (chat != null) {
+                return withHistory(chat);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving chat: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    // Get chat between two users without loading its message history
+    @Override
+    public Chat getPrivateChatWithoutHistory(String userId1, String userId2) {
+        try {
+            return typedChatCollection.find(
+                    Filters.eq("pairKey", Chat.pairKey(userId1, userId2))
+            ).first();
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving chat: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    // Find or create the private chat between two users in one upsert on the unique
+    // pairKey index, so concurrent first messages from both sides share one chat
+    @Override
+    public Chat getOrCreatePrivateChat(String userId1, String userId2) {
+        Chat candidate = new Chat(userId1, userId2);
+        Bson filter = Filters.eq("pairKey", candidate.getPairKey());
+        Bson upsert = Updates.combine(
+                Updates.setOnInsert("chatId", candidate.getChatId()),
+                Updates.setOnInsert("userId1", candidate.getUserId1()),
+                Updates.setOnInsert("userId2", candidate.getUserId2()),
+                Updates.setOnInsert("lastSequence", 0L),
+                Updates.setOnInsert("messageCount", 0L),
+                Updates.setOnInsert("createdAt", candidate.getCreatedAt())
+        );
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .upsert(true)
+                .returnDocument(ReturnDocument.AFTER);
+        
+        try {
+            Chat chat;
+            try {
+                chat = typedChatCollection.findOneAndUpdate(filter, upsert, options);
+            } catch (MongoWriteException e) {
+                // Lost the insert race to the other participant: their chat now exists
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                chat = typedChatCollection.find(filter).first();
+            }
+            return chat;
+        } catch (Exception e) {
+            System.out.println("✗ Error creating chat: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    // Get private chat between two users (alias for getChatBetweenUsers)
+    @Override
+    public Chat getPrivateChat(String userId1, String userId2) {
+        return getChatBetweenUsers(userId1, userId2);
+    }
+
+    // Get all chats for a user
+    @Override
+    public List<Chat> getChatsByUser(String userId) {
+        List<Chat> chats = new ArrayList<>();
+        try {
+            for (Chat chat : typedChatCollection.find(
+                    Filters.or(
+                            Filters.eq("userId1", userId),
+                            Filters.eq("userId2", userId)
+                    )
+            )) {
+                chats.add(withHistory(chat));
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving chats: " + e.getMessage());
+        }
+        return chats;
+    }
+
+    // Count a user's chats from the userId1/userId2 indexes without reading any chat
+    @Override
+    public long countChatsByUser(String userId) {
+        try {
+            return chatCollection.countDocuments(
+                    Filters.or(
+                            Filters.eq("userId1", userId),
+                            Filters.eq("userId2", userId)
+                    )
+            );
+        } catch (Exception e) {
+            System.out.println("✗ Error counting chats: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Get conversation-list summaries of a user's chats, newest activity first.
+    // Reads only the chat documents' summary fields, never their messages.
+    @Override
+    public List<ConversationSummary> getChatSummariesByUser(String userId) {
+        List<ConversationSummary> summaries = new ArrayList<>();
+        try {
+            for (Document chatDoc : chatCollection.find(
+                    Filters.or(
+                            Filters.eq("userId1", userId),
+                            Filters.eq("userId2", userId)
+                    )
+            ).projection(Projections.include("chatId", "userId1", "userId2", "lastSequence", "messageCount",
+                    "lastMessagePreview", "lastSenderId", "lastActivityAt"))
+             .sort(Sorts.descending("lastActivityAt"))) {
+                summaries.add(new ConversationSummary(
+                        chatDoc.getString("chatId"),
+                        null,
+                        Arrays.asList(chatDoc.getString("userId1"), chatDoc.getString("userId2")),
+                        getMessageCount(chatDoc),
+                        chatDoc.getString("lastMessagePreview"),
+                        chatDoc.getString("lastSenderId"),
+                        chatDoc.getDate("lastActivityAt")
+                ));
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving chat summaries: " + e.getMessage());
+        }
+        return summaries;
+    }
+
+    // Update Chat
+    @Override
+    public boolean updateChat(Chat chat) {
+        try {
+            List<Message> unsaved = getUnsavedMessages(chat.getMessages());
+            if (!unsaved.isEmpty()) {
+                long sequence = reserveSequences(chat, unsaved) - unsaved.size();
+                
+                // Save only messages not yet stored in the conversation
+                for (Message msg : unsaved) {
+                    msg.assignSequence(chat.getChatId(), ++sequence);
+                    messageRepository.saveMessage(msg);
+                }
+            }
+            
+            System.out.println("✓ Chat updated in database: " + chat.getChatId());
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error updating chat: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Append a single message to a chat: one counter update and one insert,
+    // independent of how long the chat history already is
+    @Override
+    public boolean appendMessage(Chat chat, Message message) {
+        try {
+            long sequence = reserveSequences(chat, Collections.singletonList(message));
+            message.assignSequence(chat.getChatId(), sequence);
+            chat.addMessage(message);
+            return messageRepository.saveMessage(message);
+        } catch (Exception e) {
+            System.out.println("✗ Error appending message to chat: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Same as appendMessage, but the insert joins the write-behind batch.
+    // The future completes with true once the message is durable.
+    @Override
+    public CompletableFuture<Boolean> appendMessageAsync(Chat chat, Message message) {
+        try {
+            long sequence = reserveSequences(chat, Collections.singletonList(message));
+            message.assignSequence(chat.getChatId(), sequence);
+            chat.addMessage(message);
+            return messageRepository.saveMessageAsync(message);
+        } catch (Exception e) {
+            System.out.println("✗ Error appending message to chat: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    // Delete Chat
+    @Override
+    public boolean deleteChat(String chatId) {
+        try {
+            chatCollection.deleteOne(Filters.eq("chatId", chatId));
+            System.out.println("✓ Chat deleted from database: " + chatId);
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error deleting chat: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Helper methods
+    private List<Message> getUnsavedMessages(List<Message> messages) {
+        List<Message> unsaved = new ArrayList<>();
+        for (Message msg : messages) {
+            if (!msg.isPersisted()) {
+                unsaved.add(msg);
+            }
+        }
+        return unsaved;
+    }
+
+    // Atomically advance the chat's sequence counter by the number of new messages
+    // and return the new value.
+    // Chats that were never saved (e.g. created by the CLI) are inserted on first use.
+    // The same update refreshes the conversation summary from the newest message.
+    private long reserveSequences(Chat chat, List<Message> newMessages) {
+        Document chatDoc = chatCollection.findOneAndUpdate(
+                Filters.eq("chatId", chat.getChatId()),
+                Updates.combine(
+                        summaryUpdates(newMessages),
+                        Updates.setOnInsert("userId1", chat.getUserId1()),
+                        Updates.setOnInsert("userId2", chat.getUserId2()),
+                        Updates.setOnInsert("pairKey", chat.getPairKey()),
+                        Updates.setOnInsert("createdAt", chat.getCreatedAt())
+                ),
+                new FindOneAndUpdateOptions()
+                        .upsert(true)
+                        .projection(Projections.include("lastSequence"))
+                        .returnDocument(ReturnDocument.AFTER)
+        );
+        return ((Number) chatDoc.get("lastSequence")).longValue();
+    }
+
+    // Chats migrated before messageCount existed still have an accurate lastSequence
+    private long getMessageCount(Document doc) {
+        Number count = (Number) doc.get(doc.containsKey("messageCount") ? "messageCount" : "lastSequence");
+        return count != null ? count.longValue() : 0;
+    }
+
+    private Bson summaryUpdates(List<Message> newMessages) {
+        Message last = newMessages.get(newMessages.size() - 1);
+        return Updates.combine(
+                Updates.inc("lastSequence", (long) newMessages.size()),
+                Updates.inc("messageCount", (long) newMessages.size()),
+                Updates.set("lastMessagePreview", ConversationSummary.toPreview(last.getContent())),
+                Updates.set("lastSenderId", last.getSenderId()),
+                Updates.set("lastActivityAt", last.getTimestamp())
+        );
+    }
+
+    // Chats written before sequence numbers existed still carry a messageIds array.
+    // Adopt their messages once at startup so every later read can decode chats directly.
+    private void migrateLegacyChats() {
+        try {
+            for (Document doc : chatCollection.find(Filters.and(
+                    Filters.exists("messageIds"), Filters.exists("lastSequence", false)))) {
+                migrateLegacyMessageIds(doc);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error migrating legacy chats: " + e.getMessage());
+        }
+    }
+
+    private void migrateLegacyMessageIds(Document doc) {
+        @SuppressWarnings("unchecked")
+        List<String> messageIds = (List<String>) doc.get("messageIds");
+        String chatId = doc.getString("chatId");
+        long lastSequence = legacyMessageRepository.adoptLegacyMessages(chatId, messageIds);
+        chatCollection.updateOne(
+                Filters.eq("chatId", chatId),
+                Updates.combine(
+                        Updates.set("lastSequence", lastSequence),
+                        Updates.set("messageCount", lastSequence),
+                        Updates.unset("messageIds")
+                )
+        );
+    }
+
+    // Reconstruct messages with a single range query on the conversation
+    private Chat withHistory(Chat chat) {
+        for (Message msg : messageRepository.getMessagesByConversation(chat.getChatId())) {
+            chat.addMessage(msg);
+        }
+        return chat;
+    }
+}
@@ -0,0 +1,178 @@
+package com.whatsapp;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MongoDB connection settings.
+ * Values are read from application.properties on the classpath, then from
+ * the file named by MONGO_CONFIG_FILE, then from environment variables;
+ * later sources win. The environment name of a key is the key upper-cased
+ * with dots and dashes replaced by underscores, e.g.
+ * mongodb.connection-pool-size -> MONGODB_CONNECTION_POOL_SIZE.
+ *
+ * There is no default connection string: it must come from
+ * MONGODB_CONNECTION_STRING, MONGODB_URI or mongodb.connection-string.
+ */
+public class MongoConfig {
+    private static final String DEFAULT_DATABASE_NAME = "whatsapp_db";
+
+    private final Properties properties = new Properties();
+
+    private MongoConfig() {
+    }
+
+    public static MongoConfig load() {
+        MongoConfig config = new MongoConfig();
+        try (InputStream in = MongoConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (in != null) {
+                config.properties.load(in);
+            }
+        } catch (IOException e) {
+            System.out.println("✗ Error reading application.properties: " + e.getMessage());
+        }
+
+        String file = System.getenv("MONGO_CONFIG_FILE");
+        if (file != null && !file.isEmpty()) {
+            try (InputStream in = Files.newInputStream(Paths.get(file))) {
+                config.properties.load(in);
+                System.out.println("✓ Loaded MongoDB settings from " + file);
+            } catch (IOException e) {
+                System.out.println("✗ Error reading MongoDB settings from " + file + ": " + e.getMessage());
+            }
+        }
+        return config;
+    }
+
+    // MONGODB_URI, the name most hosts use, ranks with the other environment variables above the files
+    public String getConnectionString() {
+        String connectionString = getEnv("mongodb.connection-string");
+        if (connectionString == null) {
+            String uri = System.getenv("MONGODB_URI");
+            connectionString = uri != null && !uri.trim().isEmpty() ? uri.trim() : get("mongodb.connection-string", null);
+        }
+        if (connectionString == null) {
+            throw new IllegalStateException("No MongoDB connection string configured: set MONGODB_URI "
+                    + "(or MONGODB_CONNECTION_STRING), or mongodb.connection-string in application.properties "
+                    + "or the file named by MONGO_CONFIG_FILE");
+        }
+        return connectionString;
+    }
+
+    public String getDatabaseName() {
+        return get("mongodb.database-name", DEFAULT_DATABASE_NAME);
+    }
+
+    public int getMaxPoolSize() {
+        return getInt("mongodb.connection-pool-size", 100);
+    }
+
+    // How often pool and command metrics are logged; 0 disables the log line
+    public int getMetricsLogIntervalSeconds() {
+        return getInt("mongodb.metrics-log-interval", 60);
+    }
+
+    /**
+     * Driver settings for these values. Pool, socket and server-selection
+     * values here take precedence over options in the connection string.
+     */
+    public MongoClientSettings toClientSettings(MongoMetrics metrics) {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(getConnectionString()))
+                .applyToConnectionPoolSettings(pool -> {
+                    pool.maxSize(getMaxPoolSize());
+                    pool.minSize(getInt("mongodb.min-pool-size", 0));
+                    pool.maxWaitTime(getLong("mongodb.max-wait-time", 120000), TimeUnit.MILLISECONDS);
+                    pool.maxConnectionIdleTime(getLong("mongodb.max-idle-time", 0), TimeUnit.MILLISECONDS);
+                    pool.maxConnecting(getInt("mongodb.max-connecting", 2));
+                    pool.addConnectionPoolListener(metrics);
+                })
+                .applyToSocketSettings(socket -> {
+                    socket.connectTimeout(getInt("mongodb.connect-timeout", 10000), TimeUnit.MILLISECONDS);
+                    socket.readTimeout(getInt("mongodb.socket-timeout", 0), TimeUnit.MILLISECONDS);
+                })
+                .applyToClusterSettings(cluster ->
+                    cluster.serverSelectionTimeout(getLong("mongodb.server-selection-timeout", 30000), TimeUnit.MILLISECONDS))
+                .addCommandListener(metrics)
+                .codecRegistry(DomainCodecs.registry());
+
+        String readPreference = get("mongodb.read-preference", null);
+        if (readPreference != null) {
+            try {
+                builder.readPreference(ReadPreference.valueOf(readPreference));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Warning: Unknown mongodb.read-preference '" + readPreference + "', using primary");
+            }
+        }
+
+        List<MongoCompressor> compressors = parseCompressors(get("mongodb.compressors", null));
+        if (!compressors.isEmpty()) {
+            builder.compressorList(compressors);
+        }
+        return builder.build();
+    }
+
+    private static List<MongoCompressor> parseCompressors(String value) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        if (value == null) {
+            return compressors;
+        }
+        for (String name : value.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "snappy":
+                    compressors.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zstd":
+                    compressors.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "":
+                    break;
+                default:
+                    System.out.println("Warning: Unknown compressor '" + name.trim() + "' ignored");
+            }
+        }
+        return compressors;
+    }
+
+    private String get(String key, String defaultValue) {
+        String env = getEnv(key);
+        if (env != null) {
+            return env;
+        }
+        String value = properties.getProperty(key);
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+
+    private static String getEnv(String key) {
+        String env = System.getenv(key.toUpperCase().replace('.', '_').replace('-', '_'));
+        return env != null && !env.trim().isEmpty() ? env.trim() : null;
+    }
+
+    private int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Warning: Invalid value '" + value + "' for " + key + ", using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
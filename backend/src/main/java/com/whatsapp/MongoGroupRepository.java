@@ -0,0 +1,347 @@
+package com.whatsapp;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class MongoGroupRepository implements GroupRepository {
+    private MongoCollection<Document> groupCollection;
+    // The same collection decoded by GroupCodec, for reads that build Group objects
+    private MongoCollection<Group> typedGroupCollection;
+    private MessageRepository messageRepository;
+    private MongoMessageRepository legacyMessageRepository;
+    private static final String COLLECTION_NAME = "groups";
+
+    // Share one MessageRepository so every group write goes through the same batch pipeline
+    public MongoGroupRepository(MongoMessageRepository messageRepository) {
+        this(messageRepository, messageRepository);
+    }
+
+    // messageRepository may front the Mongo one (e.g. with the hot-history store);
+    // legacy message adoption always goes straight to Mongo
+    public MongoGroupRepository(MessageRepository messageRepository, MongoMessageRepository legacyMessageRepository) {
+        this.groupCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME);
+        this.typedGroupCollection = groupCollection.withDocumentClass(Group.class);
+        this.messageRepository = messageRepository;
+        this.legacyMessageRepository = legacyMessageRepository;
+        migrateLegacyGroups();
+    }
+
+    // Push Group to Database
+    @Override
+    public boolean saveGroup(Group group) {
+        try {
+            List<Message> unsaved = getUnsavedMessages(group.getMessages());
+            long sequence = 0;
+            for (Message msg : unsaved) {
+                msg.assignSequence(group.getGroupId(), ++sequence);
+            }
+
+            Document groupDoc = new Document()
+                    .append("groupId", group.getGroupId())
+                    .append("groupName", group.getGroupName())
+                    .append("adminId", group.getAdminId())
+                    .append("members", group.getMembers())
+                    .append("lastSequence", sequence)
+                    .append("messageCount", sequence)
+                    .append("createdAt", group.getCreatedAt());
+
+            if (!unsaved.isEmpty()) {
+                Message last = unsaved.get(unsaved.size() - 1);
+                groupDoc.append("lastMessagePreview", ConversationSummary.toPreview(last.getContent()))
+                       .append("lastSenderId", last.getSenderId())
+                       .append("lastActivityAt", last.getTimestamp());
+            }
+
+            groupCollection.insertOne(groupDoc);
+            
+            // Save all messages
+            for (Message msg : unsaved) {
+                messageRepository.saveMessage(msg);
+            }
+            
+            System.out.println("✓ Group saved to database: " + group.getGroupId());
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error saving group: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Pull Group from Database
+    @Override
+    public Group getGroupById(String groupId) {
+        try {
+            Group group = typedGroupCollection.find(Filters.eq("groupId", groupId)).first();
+            
+            if (group != null) {
+                return withHistory(group);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving group: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Pull only the members array of a Group
+    @Override
+    public Set<String> getGroupMembers(String groupId) {
+        try {
+            Document groupDoc = groupCollection.find(Filters.eq("groupId", groupId))
+                    .projection(Projections.include("members"))
+                    .first();
+
+            if (groupDoc != null) {
+                @SuppressWarnings("unchecked")
+                List<String> members = (List<String>) groupDoc.get("members");
+                return members != null ? new HashSet<>(members) : new HashSet<>();
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving group members: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Get all groups for a user
+    @Override
+    public List<Group> getGroupsByUser(String userId) {
+        List<Group> groups = new ArrayList<>();
+        try {
+            for (Group group : typedGroupCollection.find(
+                    Filters.in("members", userId)
+            )) {
+                groups.add(withHistory(group));
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving groups: " + e.getMessage());
+        }
+        return groups;
+    }
+
+    // Count a user's groups from the members index without reading any group
+    @Override
+    public long countGroupsByUser(String userId) {
+        try {
+            return groupCollection.countDocuments(Filters.in("members", userId));
+        } catch (Exception e) {
+            System.out.println("✗ Error counting groups: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Get conversation-list summaries of a user's groups, newest activity first.
+    // Reads only the group documents' summary fields, never their messages.
+    @Override
+    public List<ConversationSummary> getGroupSummariesByUser(String userId) {
+        List<ConversationSummary> summaries = new ArrayList<>();
+        try {
+            for (Document groupDoc : groupCollection.find(
+                    Filters.in("members", userId)
+            ).projection(Projections.include("groupId", "groupName", "members", "lastSequence", "messageCount",
+                    "lastMessagePreview", "lastSenderId", "lastActivityAt"))
+             .sort(Sorts.descending("lastActivityAt"))) {
+                @SuppressWarnings("unchecked")
+                List<String> members = (List<String>) groupDoc.get("members");
+                summaries.add(new ConversationSummary(
+                        groupDoc.getString("groupId"),
+                        groupDoc.getString("groupName"),
+                        members,
+                        getMessageCount(groupDoc),
+                        groupDoc.getString("lastMessagePreview"),
+                        groupDoc.getString("lastSenderId"),
+                        groupDoc.getDate("lastActivityAt")
+                ));
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving group summaries: " + e.getMessage());
+        }
+        return summaries;
+    }
+
+    // Get all groups
+    @Override
+    public List<Group> getAllGroups() {
+        List<Group> groups = new ArrayList<>();
+        try {
+            for (Group group : typedGroupCollection.find()) {
+                groups.add(withHistory(group));
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving all groups: " + e.getMessage());
+        }
+        return groups;
+    }
+
+    // Stream all groups in batches of batchSize, skipping their message history
+    @Override
+    public RecordCursor<Group> streamAllGroups(int batchSize) {
+        try {
+            return new MongoRecordCursor<>(typedGroupCollection.find()
+                    .projection(Projections.include("groupId", "groupName", "adminId", "members"))
+                    .batchSize(batchSize).iterator());
+        } catch (Exception e) {
+            System.out.println("✗ Error opening group cursor: " + e.getMessage());
+            return RecordCursor.empty();
+        }
+    }
+
+    // Update Group
+    @Override
+    public boolean updateGroup(Group group) {
+        try {
+            Document updateDoc = new Document()
+                    .append("groupName", group.getGroupName())
+                    .append("members", group.getMembers());
+
+            groupCollection.updateOne(
+                    Filters.eq("groupId", group.getGroupId()),
+                    new Document("$set", updateDoc)
+            );
+            
+            // Save only messages not yet stored in the conversation
+            List<Message> unsaved = getUnsavedMessages(group.getMessages());
+            if (!unsaved.isEmpty()) {
+                long sequence = reserveSequences(group.getGroupId(), unsaved) - unsaved.size();
+                for (Message msg : unsaved) {
+                    msg.assignSequence(group.getGroupId(), ++sequence);
+                    messageRepository.saveMessage(msg);
+                }
+            }
+            
+            System.out.println("✓ Group updated in database: " + group.getGroupId());
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error updating group: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Append a single message to a group: one counter update and one insert,
+    // independent of how long the group history already is
+    @Override
+    public boolean appendMessage(String groupId, Message message) {
+        try {
+            long sequence = reserveSequences(groupId, Collections.singletonList(message));
+            message.assignSequence(groupId, sequence);
+            return messageRepository.saveMessage(message);
+        } catch (Exception e) {
+            System.out.println("✗ Error appending message to group: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Same as appendMessage, but the insert joins the write-behind batch.
+    // The future completes with true once the message is durable.
+    @Override
+    public CompletableFuture<Boolean> appendMessageAsync(String groupId, Message message) {
+        try {
+            long sequence = reserveSequences(groupId, Collections.singletonList(message));
+            message.assignSequence(groupId, sequence);
+            return messageRepository.saveMessageAsync(message);
+        } catch (Exception e) {
+            System.out.println("✗ Error appending message to group: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    // Delete Group
+    @Override
+    public boolean deleteGroup(String groupId) {
+        try {
+            groupCollection.deleteOne(Filters.eq("groupId", groupId));
+            System.out.println("✓ Group deleted from database: " + groupId);
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error deleting group: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Helper methods
+    private List<Message> getUnsavedMessages(List<Message> messages) {
+        List<Message> unsaved = new ArrayList<>();
+        for (Message msg : messages) {
+            if (!msg.isPersisted()) {
+                unsaved.add(msg);
+            }
+        }
+        return unsaved;
+    }
+
+    // Atomically advance the group's sequence counter by the number of new messages
+    // and return the new value. The same update refreshes the conversation summary.
+    private long reserveSequences(String groupId, List<Message> newMessages) {
+        Document groupDoc = groupCollection.findOneAndUpdate(
+                Filters.eq("groupId", groupId),
+                summaryUpdates(newMessages),
+                new FindOneAndUpdateOptions()
+                        .projection(Projections.include("lastSequence"))
+                        .returnDocument(ReturnDocument.AFTER)
+        );
+        if (groupDoc == null) {
+            throw new IllegalStateException("Group not found: " + groupId);
+        }
+        return ((Number) groupDoc.get("lastSequence")).longValue();
+    }
+
+    // Groups migrated before messageCount existed still have an accurate lastSequence
+    private long getMessageCount(Document doc) {
+        Number count = (Number) doc.get(doc.containsKey("messageCount") ? "messageCount" : "lastSequence");
+        return count != null ? count.longValue() : 0;
+    }
+
+    private Bson summaryUpdates(List<Message> newMessages) {
+        Message last = newMessages.get(newMessages.size() - 1);
+        return Updates.combine(
+                Updates.inc("lastSequence", (long) newMessages.size()),
+                Updates.inc("messageCount", (long) newMessages.size()),
+                Updates.set("lastMessagePreview", ConversationSummary.toPreview(last.getContent())),
+                Updates.set("lastSenderId", last.getSenderId()),
+                Updates.set("lastActivityAt", last.getTimestamp())
+        );
+    }
+
+    // Groups written before sequence numbers existed still carry a messageIds array.
+    // Adopt their messages once at startup so every later read can decode groups directly.
+    private void migrateLegacyGroups() {
+        try {
+            for (Document doc : groupCollection.find(Filters.and(
+                    Filters.exists("messageIds"), Filters.exists("lastSequence", false)))) {
+                migrateLegacyMessageIds(doc);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error migrating legacy groups: " + e.getMessage());
+        }
+    }
+
+    private void migrateLegacyMessageIds(Document doc) {
+        @SuppressWarnings("unchecked")
+        List<String> messageIds = (List<String>) doc.get("messageIds");
+        String groupId = doc.getString("groupId");
+        long lastSequence = legacyMessageRepository.adoptLegacyMessages(groupId, messageIds);
+        groupCollection.updateOne(
+                Filters.eq("groupId", groupId),
+                Updates.combine(
+                        Updates.set("lastSequence", lastSequence),
+                        Updates.set("messageCount", lastSequence),
+                        Updates.unset("messageIds")
+                )
+        );
+    }
+
+    // Reconstruct messages with a single range query on the conversation
+    private Group withHistory(Group group) {
+        for (Message msg : messageRepository.getMessagesByConversation(group.getGroupId())) {
+            group.addMessage(msg);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,330 @@
+package com.whatsapp;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.conversions.Bson;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class MongoMessageRepository implements MessageRepository {
+    private MongoCollection<Message> messageCollection;
+    private MessageBatchWriter batchWriter;
+    private MessageWriteAheadLog writeAheadLog;
+    private MessageArchive archive;
+    private static final String COLLECTION_NAME = "messages";
+    private static final String DEFAULT_WAL_DIR = "wal";
+
+    public MongoMessageRepository() {
+        this.messageCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME, Message.class);
+        this.batchWriter = new MessageBatchWriter(messageCollection);
+        this.writeAheadLog = openWriteAheadLog();
+        replayWriteAheadLog();
+        this.archive = new MessageArchive(
+                DatabaseConnection.getInstance().getCollection(MessageArchive.COLLECTION_NAME),
+                messageCollection);
+        archive.startFromEnvironment();
+    }
+
+    // MESSAGE_WAL=off disables the local log; MESSAGE_WAL_DIR chooses where it lives
+    private MessageWriteAheadLog openWriteAheadLog() {
+        if ("off".equalsIgnoreCase(System.getenv("MESSAGE_WAL"))) {
+            return null;
+        }
+        String dir = System.getenv("MESSAGE_WAL_DIR");
+        try {
+            return new MessageWriteAheadLog(Paths.get(dir != null && !dir.isEmpty() ? dir : DEFAULT_WAL_DIR));
+        } catch (IOException e) {
+            System.out.println("✗ Error opening write-ahead log, messages will wait for the database: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Re-insert messages a previous run accepted but never got into the database.
+    // Duplicates of messages that did arrive are rejected by the messageId index.
+    private void replayWriteAheadLog() {
+        if (writeAheadLog == null) {
+            return;
+        }
+        List<Message> recovered = writeAheadLog.readRecovered();
+        List<CompletableFuture<Boolean>> acks = new ArrayList<>();
+        for (Message message : recovered) {
+            acks.add(batchWriter.enqueue(message));
+        }
+
+        int missing = 0;
+        for (int i = 0; i < recovered.size(); i++) {
+            if (!acks.get(i).join() && getMessageById(recovered.get(i).getMessageId()) == null) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            writeAheadLog.discardRecovered();
+            if (!recovered.isEmpty()) {
+                System.out.println("✓ Replayed " + recovered.size() + " messages from the write-ahead log");
+            }
+        } else {
+            System.out.println("✗ " + missing + " logged messages could not be replayed; keeping the log for the next start");
+        }
+    }
+
+    // Push Message to Database, waiting until the message is durable
+    @Override
+    public boolean saveMessage(Message message) {
+        try {
+            return saveMessageAsync(message).join();
+        } catch (Exception e) {
+            System.out.println("✗ Error saving message: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Queue Message for the next batched insert. The future completes once the message
+    // is fsynced to the local write-ahead log, or stored in the database if the log is off.
+    @Override
+    public CompletableFuture<Boolean> saveMessageAsync(Message message) {
+        if (writeAheadLog == null) {
+            return batchWriter.enqueue(message);
+        }
+        return writeAheadLog.append(message).handle((segment, error) -> {
+            if (error != null) {
+                System.out.println("✗ Error logging message, waiting for the database: " + error.getMessage());
+                return batchWriter.enqueue(message);
+            }
+            // Acknowledged to the sender already, so keep retrying until the insert lands.
+            // An attempt that finds the message already stored completes true too, so the
+            // segment is released instead of being replayed on every start.
+            CompletableFuture<Boolean> stored = batchWriter.enqueueRetrying(message);
+            stored.thenAccept(saved -> {
+                if (saved) {
+                    writeAheadLog.markApplied(segment);
+                }
+            });
+            return CompletableFuture.completedFuture(true);
+        }).thenCompose(durable -> durable);
+    }
+
+    // Write all queued messages now and wait for the acknowledgement
+    @Override
+    public void flush() {
+        if (writeAheadLog != null) {
+            writeAheadLog.flush();
+        }
+        batchWriter.flush();
+    }
+
+    @Override
+    public void addFlushListener(MessageBatchWriter.FlushListener listener) {
+        batchWriter.addFlushListener(listener);
+    }
+
+    // Flush queued messages and stop the background writers
+    @Override
+    public void close() {
+        archive.close();
+        if (writeAheadLog != null) {
+            writeAheadLog.flush();
+        }
+        batchWriter.close();
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
+    // Pull Message from Database. Only the hot collection is searched; archived
+    // messages are reachable through their conversation's history.
+    @Override
+    public Message getMessageById(String messageId) {
+        try {
+            return messageCollection.find(Filters.eq("messageId", messageId)).first();
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving message: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Get the full history of a chat or group, ordered by sequence: the archived
+    // prefix followed by the hot messages
+    @Override
+    public List<Message> getMessagesByConversation(String conversationId) {
+        List<Message> messages = archive.readAll(conversationId);
+        long archivedThrough = messages.isEmpty() ? 0 : messages.get(messages.size() - 1).getSequence();
+        try {
+            for (Message message : messageCollection.find(Filters.and(
+                            Filters.eq("conversationId", conversationId),
+                            Filters.gt("sequence", archivedThrough)))
+                    .sort(Sorts.ascending("sequence"))) {
+                messages.add(message);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving conversation messages: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    // Get one page of a conversation. With beforeSequence the page ends just before
+    // that cursor, with afterSequence it starts just after it, and with neither it is
+    // the newest page. Reads at most limit + 1 documents from the index, and falls
+    // through to the archive when the page reaches past the oldest hot message.
+    @Override
+    public MessagePage getConversationPage(String conversationId, Long beforeSequence,
+                                           Long afterSequence, int limit) {
+        List<Message> messages = new ArrayList<>();
+        boolean hasMore = false;
+        try {
+            List<Bson> filters = new ArrayList<>();
+            filters.add(Filters.eq("conversationId", conversationId));
+            if (beforeSequence != null) {
+                filters.add(Filters.lt("sequence", beforeSequence));
+            }
+            if (afterSequence != null) {
+                filters.add(Filters.gt("sequence", afterSequence));
+            }
+
+            // Walk forward from an after-cursor, otherwise backward from the newest end
+            boolean forward = afterSequence != null && beforeSequence == null;
+            for (Message message : messageCollection.find(Filters.and(filters))
+                    .sort(forward ? Sorts.ascending("sequence") : Sorts.descending("sequence"))
+                    .limit(limit + 1)) {
+                messages.add(message);
+            }
+            if (forward || messages.size() <= limit) {
+                messages = withArchived(conversationId, messages, beforeSequence, afterSequence, forward, limit + 1);
+            }
+
+            if (messages.size() > limit) {
+                hasMore = true;
+                messages.remove(messages.size() - 1);
+            }
+            if (!forward) {
+                Collections.reverse(messages);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving conversation page: " + e.getMessage());
+        }
+        return new MessagePage(messages, hasMore);
+    }
+
+    // Complete a hot page from the archive. Archived sequences are all below the hot
+    // ones, so a short backward page continues below its oldest hot message and a
+    // forward page is prefixed by whatever lies between the cursor and its first hot one.
+    private List<Message> withArchived(String conversationId, List<Message> hot, Long beforeSequence,
+                                       Long afterSequence, boolean forward, int max) {
+        if (forward) {
+            Long firstHot = hot.isEmpty() ? null : hot.get(0).getSequence();
+            if (firstHot != null && firstHot == afterSequence + 1) {
+                return hot;
+            }
+            List<Message> messages = archive.read(conversationId, afterSequence, firstHot, true, max);
+            for (Message message : hot) {
+                if (messages.size() >= max) {
+                    break;
+                }
+                messages.add(message);
+            }
+            return messages;
+        }
+
+        Long oldestHot = hot.isEmpty() ? beforeSequence : Long.valueOf(hot.get(hot.size() - 1).getSequence());
+        if (oldestHot != null && oldestHot <= 1) {
+            return hot;
+        }
+        hot.addAll(archive.read(conversationId, afterSequence, oldestHot, false, max - hot.size()));
+        return hot;
+    }
+
+    // Attach messages referenced by a legacy messageIds array to their conversation.
+    // Sequence numbers follow the array order; returns the last sequence assigned.
+    public long adoptLegacyMessages(String conversationId, List<String> messageIds) {
+        List<WriteModel<Message>> updates = new ArrayList<>();
+        long sequence = 0;
+        for (String messageId : messageIds) {
+            sequence++;
+            updates.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("messageId", messageId), Filters.exists("conversationId", false)),
+                    Updates.combine(
+                            Updates.set("conversationId", conversationId),
+                            Updates.set("sequence", sequence)
+                    )
+            ));
+        }
+        try {
+            if (!updates.isEmpty()) {
+                messageCollection.bulkWrite(updates);
+            }
+            System.out.println("✓ Migrated " + updates.size() + " messages into conversation: " + conversationId);
+        } catch (Exception e) {
+            System.out.println("✗ Error migrating legacy messages: " + e.getMessage());
+        }
+        return sequence;
+    }
+
+    // Get messages by sender
+    @Override
+    public List<Message> getMessagesBySender(String senderId) {
+        List<Message> messages = new ArrayList<>();
+        try {
+            for (Message message : messageCollection.find(Filters.eq("senderId", senderId))) {
+                messages.add(message);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving messages: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    // Stream a sender's messages in batches of batchSize
+    @Override
+    public RecordCursor<Message> streamMessagesBySender(String senderId, int batchSize) {
+        try {
+            return new MongoRecordCursor<>(
+                    messageCollection.find(Filters.eq("senderId", senderId)).batchSize(batchSize).iterator());
+        } catch (Exception e) {
+            System.out.println("✗ Error opening message cursor: " + e.getMessage());
+            return RecordCursor.empty();
+        }
+    }
+
+    // Get all messages
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> messages = new ArrayList<>();
+        try {
+            for (Message message : messageCollection.find()) {
+                messages.add(message);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving all messages: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    // Stream all messages in batches of batchSize
+    @Override
+    public RecordCursor<Message> streamAllMessages(int batchSize) {
+        try {
+            return new MongoRecordCursor<>(messageCollection.find().batchSize(batchSize).iterator());
+        } catch (Exception e) {
+            System.out.println("✗ Error opening message cursor: " + e.getMessage());
+            return RecordCursor.empty();
+        }
+    }
+
+    // Delete Message
+    @Override
+    public boolean deleteMessage(String messageId) {
+        try {
+            messageCollection.deleteOne(Filters.eq("messageId", messageId));
+            System.out.println("✓ Message deleted from database: " + messageId);
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error deleting message: " + e.getMessage());
+            return false;
+        }
+    }
+}
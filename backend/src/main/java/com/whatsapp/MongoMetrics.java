@@ -0,0 +1,156 @@
+package com.whatsapp;
+
+import com.mongodb.event.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONObject;
+
+/**
+ * Connection-pool and command listener for the Mongo client.
+ * Tracks checkout wait time, pool utilization and failed checkouts (pool
+ * exhaustion shows up here as TIMEOUT failures), plus a latency histogram
+ * per command name. Exposed as JSON through /api/metrics/mongo and logged
+ * periodically.
+ */
+public class MongoMetrics implements ConnectionPoolListener, CommandListener {
+    private final int maxPoolSize;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LatencyHistogram checkoutWait = new LatencyHistogram();
+    private final LongAdder checkoutTimeouts = new LongAdder();
+    private final LongAdder checkoutFailures = new LongAdder();
+
+    private final Map<String, LatencyHistogram> commandLatency = new ConcurrentHashMap<>();
+    private final LongAdder commandFailures = new LongAdder();
+
+    private ScheduledExecutorService reporter;
+
+    public MongoMetrics(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        connections.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        connections.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waiting.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        waiting.decrementAndGet();
+        checkedOut.incrementAndGet();
+        checkoutWait.record(event.getElapsedTime(TimeUnit.MICROSECONDS), TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waiting.decrementAndGet();
+        checkoutWait.record(event.getElapsedTime(TimeUnit.MICROSECONDS), TimeUnit.MICROSECONDS);
+        if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+            checkoutTimeouts.increment();
+            System.out.println("✗ MongoDB connection pool exhausted: checkout timed out with "
+                    + checkedOut.get() + "/" + maxPoolSize + " connections in use");
+        } else {
+            checkoutFailures.increment();
+        }
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOut.decrementAndGet();
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        latencyFor(event.getCommandName()).record(event.getElapsedTime(TimeUnit.MICROSECONDS), TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        commandFailures.increment();
+        latencyFor(event.getCommandName()).record(event.getElapsedTime(TimeUnit.MICROSECONDS), TimeUnit.MICROSECONDS);
+    }
+
+    // Share of the pool currently checked out, 0.0 - 1.0
+    public double getPoolUtilization() {
+        return maxPoolSize == 0 ? 0 : (double) checkedOut.get() / maxPoolSize;
+    }
+
+    public JSONObject toJson() {
+        JSONObject pool = new JSONObject();
+        pool.put("maxSize", maxPoolSize);
+        pool.put("connections", connections.get());
+        pool.put("checkedOut", checkedOut.get());
+        pool.put("waiting", Math.max(0, waiting.get()));
+        pool.put("utilization", getPoolUtilization());
+        pool.put("checkoutWait", checkoutWait.toJson());
+        pool.put("checkoutTimeouts", checkoutTimeouts.sum());
+        pool.put("checkoutFailures", checkoutFailures.sum());
+
+        JSONObject commands = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : commandLatency.entrySet()) {
+            commands.put(entry.getKey(), entry.getValue().toJson());
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("pool", pool);
+        json.put("commands", commands);
+        json.put("commandFailures", commandFailures.sum());
+        return json;
+    }
+
+    // Log a one-line summary every intervalSeconds
+    public void startReporting(int intervalSeconds) {
+        if (intervalSeconds <= 0 || reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mongo-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::logSummary, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    private void logSummary() {
+        System.out.println(String.format(
+                "MongoDB pool: %d/%d in use (%.0f%%), %d waiting, checkout wait p99=%dus, timeouts=%d, commands=%d",
+                checkedOut.get(), maxPoolSize, getPoolUtilization() * 100, Math.max(0, waiting.get()),
+                checkoutWait.percentileMicros(99), checkoutTimeouts.sum(), totalCommands()));
+    }
+
+    private long totalCommands() {
+        long total = 0;
+        for (LatencyHistogram histogram : commandLatency.values()) {
+            total += histogram.getCount();
+        }
+        return total;
+    }
+
+    private LatencyHistogram latencyFor(String commandName) {
+        return commandLatency.computeIfAbsent(commandName, name -> new LatencyHistogram());
+    }
+}
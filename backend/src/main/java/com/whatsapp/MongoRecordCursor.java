@@ -0,0 +1,31 @@
+package com.whatsapp;
+
+import com.mongodb.client.MongoCursor;
+
+/**
+ * RecordCursor backed by a MongoDB cursor over a typed collection, so each
+ * record is decoded by its codec as it is reached. The driver fetches
+ * batchSize documents per round-trip.
+ */
+class MongoRecordCursor<T> implements RecordCursor<T> {
+    private final MongoCursor<T> cursor;
+
+    MongoRecordCursor(MongoCursor<T> cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return cursor.next();
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+}
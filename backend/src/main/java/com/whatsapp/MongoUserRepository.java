@@ -0,0 +1,164 @@
+package com.whatsapp;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import java.util.*;
+
+public class MongoUserRepository implements UserRepository {
+    private MongoCollection<User> userCollection;
+    private static final String COLLECTION_NAME = "users";
+
+    public MongoUserRepository() {
+        this.userCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME, User.class);
+    }
+
+    // Push User to Database
+    @Override
+    public boolean saveUser(User user) {
+        try {
+            userCollection.insertOne(user);
+            System.out.println("✓ User saved to database: " + user.getUserId());
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                System.out.println("✗ User not saved, userId or phone number already registered: " + user.getUserId());
+            } else {
+                System.out.println("✗ Error saving user to database: " + e.getMessage());
+            }
+            return false;
+        } catch (Exception e) {
+            System.out.println("✗ Error saving user to database: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Pull User from Database
+    @Override
+    public User getUserById(String userId) {
+        try {
+            return userCollection.find(Filters.eq("userId", userId)).first();
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving user: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Get display details for many users with one $in query, in the order of userIds.
+    // Only userId, profile name and phone number are loaded; friends lists are left empty.
+    @Override
+    public List<User> getUsersByIds(Collection<String> userIds) {
+        List<User> users = new ArrayList<>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+        try {
+            Map<String, User> byId = new HashMap<>();
+            for (User user : userCollection.find(Filters.in("userId", userIds))
+                    .projection(Projections.include("userId", "profilename", "phoneNumber"))) {
+                byId.put(user.getUserId(), user);
+            }
+            for (String userId : userIds) {
+                User user = byId.get(userId);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving users: " + e.getMessage());
+        }
+        return users;
+    }
+
+    // Find User by phone number (unique index)
+    @Override
+    public User findByPhoneNumber(String phoneNumber) {
+        try {
+            return userCollection.find(Filters.eq("phoneNumber", phoneNumber)).first();
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving user by phone number: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Find Users for many phone numbers in one query, keyed by phone number.
+    // Numbers without a registered user are absent from the result.
+    @Override
+    public Map<String, User> findByPhoneNumbers(Collection<String> phoneNumbers) {
+        Map<String, User> users = new HashMap<>();
+        if (phoneNumbers.isEmpty()) {
+            return users;
+        }
+        try {
+            for (User user : userCollection.find(Filters.in("phoneNumber", phoneNumbers))) {
+                users.put(user.getPhoneNumber(), user);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving users by phone number: " + e.getMessage());
+        }
+        return users;
+    }
+
+    // Get all users
+    @Override
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        try {
+            for (User user : userCollection.find()) {
+                users.add(user);
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error retrieving all users: " + e.getMessage());
+        }
+        return users;
+    }
+
+    // Stream all users in batches of batchSize
+    @Override
+    public RecordCursor<User> streamAllUsers(int batchSize) {
+        try {
+            return new MongoRecordCursor<>(userCollection.find().batchSize(batchSize).iterator());
+        } catch (Exception e) {
+            System.out.println("✗ Error opening user cursor: " + e.getMessage());
+            return RecordCursor.empty();
+        }
+    }
+
+    // Update User
+    @Override
+    public boolean updateUser(User user) {
+        try {
+            Document updateDoc = new Document()
+                    .append("profilename", user.getProfilename())
+                    .append("phoneNumber", user.getPhoneNumber())
+                    .append("friends", user.getFriends())
+                    .append("lastUpdated", new Date());
+
+            userCollection.updateOne(
+                    Filters.eq("userId", user.getUserId()),
+                    new Document("$set", updateDoc)
+            );
+            System.out.println("✓ User updated in database: " + user.getUserId());
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error updating user: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Delete User
+    @Override
+    public boolean deleteUser(String userId) {
+        try {
+            userCollection.deleteOne(Filters.eq("userId", userId));
+            System.out.println("✓ User deleted from database: " + userId);
+            return true;
+        } catch (Exception e) {
+            System.out.println("✗ Error deleting user: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.whatsapp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate (RFC 7692) state for one WebSocket connection.
+ * The Deflater and Inflater are created on first use and reused for every
+ * message, keeping the LZ77 window between messages unless context takeover
+ * is off; outgoing messages shorter than WS_DEFLATE_THRESHOLD bytes are sent
+ * uncompressed. Each zlib stream holds a few hundred KB of native memory, so
+ * end() must be called when the connection closes.
+ *
+ * Settings: WS_DEFLATE=off disables the extension,
+ * WS_DEFLATE_CONTEXT_TAKEOVER=off asks both sides to reset after every message.
+ */
+public class PerMessageDeflate {
+    public static final String EXTENSION = "permessage-deflate";
+
+    private static final boolean ENABLED = !"off".equalsIgnoreCase(System.getenv("WS_DEFLATE"));
+    private static final boolean CONTEXT_TAKEOVER = !"off".equalsIgnoreCase(System.getenv("WS_DEFLATE_CONTEXT_TAKEOVER"));
+    private static final int THRESHOLD = parseNonNegative("WS_DEFLATE_THRESHOLD", 128);
+
+    // Every message ends with an empty stored block, which is left off on the wire
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+    private static final int MAX_RETAINED_BUFFER = 8 * 1024;
+
+    private final boolean serverNoContextTakeover;
+    private final boolean clientNoContextTakeover;
+    private final Object deflateLock = new Object();
+    private final Object inflateLock = new Object();
+    private Deflater deflater;
+    private Inflater inflater;
+    private ByteBuffer deflateBuffer;
+    private ByteBuffer inflateBuffer;
+    private boolean ended;
+
+    private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+    }
+
+    /**
+     * Accept the first acceptable permessage-deflate offer in a
+     * Sec-WebSocket-Extensions header, or return null to decline
+     */
+    public static PerMessageDeflate negotiate(String extensionsHeader) {
+        if (!ENABLED || extensionsHeader == null) {
+            return null;
+        }
+        for (String offer : extensionsHeader.split(",")) {
+            String[] parts = offer.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(EXTENSION)) {
+                continue;
+            }
+            boolean serverNoContext = !CONTEXT_TAKEOVER;
+            boolean clientNoContext = !CONTEXT_TAKEOVER;
+            boolean acceptable = true;
+            for (int i = 1; i < parts.length && acceptable; i++) {
+                String[] param = parts[i].trim().split("=", 2);
+                String name = param[0].trim().toLowerCase();
+                String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+                switch (name) {
+                    case "server_no_context_takeover":
+                        serverNoContext = true;
+                        break;
+                    case "client_no_context_takeover":
+                        clientNoContext = true;
+                        break;
+                    case "client_max_window_bits":
+                        // Our inflater always uses a 32 KB window, which reads any smaller one
+                        break;
+                    case "server_max_window_bits":
+                        // java.util.zip cannot shrink the deflate window below 15 bits
+                        acceptable = "15".equals(value);
+                        break;
+                    default:
+                        acceptable = false;
+                }
+            }
+            if (acceptable) {
+                return new PerMessageDeflate(serverNoContext, clientNoContext);
+            }
+        }
+        return null;
+    }
+
+    // Value for the Sec-WebSocket-Extensions response header
+    public String responseHeader() {
+        return EXTENSION
+                + (serverNoContextTakeover ? "; server_no_context_takeover" : "")
+                + (clientNoContextTakeover ? "; client_no_context_takeover" : "");
+    }
+
+    public boolean shouldCompress(int payloadLength) {
+        return payloadLength >= THRESHOLD;
+    }
+
+    /**
+     * Object to hold while compressing and writing a message, so compressed
+     * messages reach the wire in the order the shared window saw them
+     */
+    public Object deflateLock() {
+        return deflateLock;
+    }
+
+    /**
+     * Compress one message, without the trailing 00 00 FF FF; callers hold deflateLock()
+     */
+    public ByteBuffer deflate(byte[] payload) {
+        if (ended) {
+            throw new IllegalStateException("Connection closed");
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        ByteBuffer out = deflateBuffer != null ? deflateBuffer : ByteBuffer.allocate(Math.max(256, payload.length / 2));
+        out.clear();
+        deflater.setInput(payload);
+        while (true) {
+            deflater.deflate(out, Deflater.SYNC_FLUSH);
+            if (out.hasRemaining()) {
+                break;
+            }
+            out = grow(out);
+        }
+        if (serverNoContextTakeover) {
+            deflater.reset();
+        }
+        int length = out.position();
+        if (length >= TAIL.length && out.get(length - 1) == TAIL[3] && out.get(length - 2) == TAIL[2]
+                && out.get(length - 3) == 0 && out.get(length - 4) == 0) {
+            length -= TAIL.length;
+        }
+        deflateBuffer = out.capacity() <= MAX_RETAINED_BUFFER ? out : null;
+        // The frame may sit in the outbound queue, so it gets its own exact-size copy
+        return ByteBuffer.wrap(Arrays.copyOf(out.array(), length));
+    }
+
+    /**
+     * Decompress one message received with RSV1 set. Returns null when it
+     * inflates beyond maxBytes; the result is only valid until the next call.
+     */
+    public ByteBuffer inflate(ByteBuffer payload, int maxBytes) throws DataFormatException {
+        synchronized (inflateLock) {
+            if (ended) {
+                throw new DataFormatException("Connection closed");
+            }
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            }
+            ByteBuffer out = inflateBuffer != null ? inflateBuffer : ByteBuffer.allocate(Math.min(maxBytes + 1, 1024));
+            out.clear();
+            try {
+                inflater.setInput(payload);
+                out = inflateAll(out, maxBytes);
+                if (out != null && !inflater.finished()) {
+                    inflater.setInput(TAIL);
+                    out = inflateAll(out, maxBytes);
+                }
+            } finally {
+                if (clientNoContextTakeover || inflater.finished() || out == null) {
+                    inflater.reset();
+                }
+            }
+            if (out == null) {
+                inflateBuffer = null;
+                return null;
+            }
+            inflateBuffer = out.capacity() <= MAX_RETAINED_BUFFER ? out : null;
+            out.flip();
+            return out;
+        }
+    }
+
+    // Inflate all pending input; null once the output exceeds maxBytes
+    private ByteBuffer inflateAll(ByteBuffer out, int maxBytes) throws DataFormatException {
+        while (true) {
+            if (!out.hasRemaining()) {
+                if (out.position() > maxBytes) {
+                    return null;
+                }
+                out = grow(out);
+            }
+            inflater.inflate(out);
+            if (inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionary not supported");
+            }
+            // Space left over means zlib has written everything the input allows
+            if (out.hasRemaining()) {
+                return out.position() > maxBytes ? null : out;
+            }
+        }
+    }
+
+    /**
+     * Release the native zlib streams
+     */
+    public void end() {
+        synchronized (deflateLock) {
+            synchronized (inflateLock) {
+                ended = true;
+                if (deflater != null) {
+                    deflater.end();
+                }
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static int parseNonNegative(String envName, int defaultValue) {
+        String value = System.getenv(envName);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("Warning: Invalid " + envName + " value '" + value + "', using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.whatsapp;
+
+import java.util.*;
+
+/**
+ * Forward-only stream over a bulk read.
+ * Records are fetched from the backend in batches as the caller iterates,
+ * so memory use does not grow with the size of the result. Always close
+ * the cursor (try-with-resources) to release the server-side cursor when
+ * stopping early.
+ */
+public interface RecordCursor<T> extends Iterator<T>, AutoCloseable {
+    int DEFAULT_BATCH_SIZE = 1000;
+
+    @Override
+    void close();
+
+    // Cursor over records that are already in memory
+    static <T> RecordCursor<T> of(Iterator<T> records) {
+        return new RecordCursor<T>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return records.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static <T> RecordCursor<T> empty() {
+        return of(Collections.emptyIterator());
+    }
+}
@@ -0,0 +1,37 @@
+package com.whatsapp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Thread pool behind the repositories' *Async methods.
+ * Blocking driver calls run here instead of on the REST executor or a
+ * WebSocket reader thread, so callers can start several reads at once and
+ * compose the futures. Sized by REPOSITORY_IO_THREADS (default 32), which
+ * should stay at or below the Mongo connection pool size. In virtual thread
+ * mode every call gets its own thread and waits on the connection pool instead.
+ */
+public final class RepositoryExecutor {
+    private static final int DEFAULT_THREADS = 32;
+    private static final ExecutorService EXECUTOR = ThreadingMode.newExecutor("repository-io", threadCount());
+
+    private RepositoryExecutor() {
+    }
+
+    public static <T> CompletableFuture<T> supply(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, EXECUTOR);
+    }
+
+    private static int threadCount() {
+        String value = System.getenv("REPOSITORY_IO_THREADS");
+        if (value != null && !value.isEmpty()) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Warning: Invalid REPOSITORY_IO_THREADS value '" + value + "', using default: " + DEFAULT_THREADS);
+            }
+        }
+        return DEFAULT_THREADS;
+    }
+}
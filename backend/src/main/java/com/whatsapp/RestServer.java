@@ -8,11 +8,13 @@ import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 public class RestServer {
     private HttpServer server;
+    private StorageEngine storageEngine;
     private UserRepository userRepository;
     private ChatRepository chatRepository;
     private MessageRepository messageRepository;
@@ -22,6 +24,8 @@ public class RestServer {
     private static final int PORT = getEnvPort("PORT", 8080);
     private static final int WS_PORT = getEnvPort("WS_PORT", 8081);
     private static Map<String, User> sessionUsers = new HashMap<>();
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
     
     private static int getEnvPort(String envName, int defaultPort) {
         String portStr = System.getenv(envName);
@@ -36,10 +40,15 @@ public class RestServer {
     }
     
     public RestServer() {
-        this.userRepository = new UserRepository();
-        this.chatRepository = new ChatRepository();
-        this.messageRepository = new MessageRepository();
-        this.groupRepository = new GroupRepository();
+        this(StorageEngine.fromEnvironment());
+    }
+    
+    public RestServer(StorageEngine storageEngine) {
+        this.storageEngine = storageEngine;
+        this.userRepository = storageEngine.getUserRepository();
+        this.messageRepository = storageEngine.getMessageRepository();
+        this.chatRepository = storageEngine.getChatRepository();
+        this.groupRepository = storageEngine.getGroupRepository();
         this.webSocketManager = new WebSocketManager(messageRepository);
     }
     
@@ -62,9 +71,11 @@ public class RestServer {
             server.createContext("/api/friends", new GetFriendsHandler());
             server.createContext("/api/friends/add", new AddFriendHandler());
             server.createContext("/api/profile", new GetProfileHandler());
+            server.createContext("/api/profile/stats", new ProfileStatsHandler());
             server.createContext("/api/ws/status", new WebSocketStatusHandler());
+            server.createContext("/api/metrics/mongo", new MongoMetricsHandler());
             
-            server.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(10));
+            server.setExecutor(ThreadingMode.newExecutor("rest-handler", 10));
             server.start();
             
             System.out.println("✓ REST Server started on http://localhost:" + PORT);
@@ -79,6 +90,42 @@ public class RestServer {
             e.printStackTrace();
         }
     }
+
+    // Stop the HTTP and WebSocket servers; the storage engine is closed by its owner
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (webSocketServer != null) {
+            webSocketServer.stop();
+        }
+    }
+
+    public WebSocketServer getWebSocketServer() {
+        return webSocketServer;
+    }
+
+    // MongoDB pool and command metrics
+    private class MongoMetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            enableCORS(exchange);
+            
+            if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                handleOptions(exchange);
+                return;
+            }
+            
+            JSONObject response = new JSONObject();
+            response.put("storageEngine", storageEngine.getName());
+            if (StorageEngine.MONGO.equals(storageEngine.getName())
+                    && DatabaseConnection.getInstance().getMetrics() != null) {
+                response.put("metrics", DatabaseConnection.getInstance().getMetrics().toJson());
+            }
+            
+            sendResponse(exchange, response.toString());
+        }
+    }
     
     // WebSocket Status Handler
     private class WebSocketStatusHandler implements HttpHandler {
@@ -155,15 +202,26 @@ public class RestServer {
                 String profileName = json.getString("profileName");
                 String phoneNumber = json.getString("phoneNumber");
                 
+                JSONObject response = new JSONObject();
+                if (userRepository.findByPhoneNumber(phoneNumber) != null) {
+                    response.put("success", false);
+                    response.put("message", "✗ Phone number already registered");
+                    sendResponse(exchange, response.toString());
+                    return;
+                }
+                
                 User newUser = new User(UUID.randomUUID().toString(), profileName, phoneNumber);
                 boolean success = userRepository.saveUser(newUser);
                 
-                JSONObject response = new JSONObject();
                 if (success) {
                     sessionUsers.put(phoneNumber, newUser);
                     response.put("success", true);
                     response.put("userId", newUser.getUserId());
                     response.put("message", "✓ Registration successful");
+                } else if (userRepository.findByPhoneNumber(phoneNumber) != null) {
+                    // Lost a race with another registration on the unique phone index
+                    response.put("success", false);
+                    response.put("message", "✗ Phone number already registered");
                 } else {
                     response.put("success", false);
                     response.put("message", "✗ Failed to register user");
@@ -192,15 +250,7 @@ public class RestServer {
                 JSONObject json = new JSONObject(body);
                 
                 String phoneNumber = json.getString("phoneNumber");
-                List<User> allUsers = userRepository.getAllUsers();
-                User foundUser = null;
-                
-                for (User user : allUsers) {
-                    if (user.getPhoneNumber().equals(phoneNumber)) {
-                        foundUser = user;
-                        break;
-                    }
-                }
+                User foundUser = userRepository.findByPhoneNumber(phoneNumber);
                 
                 JSONObject response = new JSONObject();
                 if (foundUser != null) {
@@ -232,15 +282,17 @@ public class RestServer {
                 return;
             }
             
-            List<User> allUsers = userRepository.getAllUsers();
+            // Stream users from a cursor instead of materializing the whole collection first
             JSONArray usersArray = new JSONArray();
-            
-            for (User user : allUsers) {
-                JSONObject userObj = new JSONObject();
-                userObj.put("userId", user.getUserId());
-                userObj.put("profileName", user.getProfilename());
-                userObj.put("phoneNumber", user.getPhoneNumber());
-                usersArray.put(userObj);
+            try (RecordCursor<User> users = userRepository.streamAllUsers(RecordCursor.DEFAULT_BATCH_SIZE)) {
+                while (users.hasNext()) {
+                    User user = users.next();
+                    JSONObject userObj = new JSONObject();
+                    userObj.put("userId", user.getUserId());
+                    userObj.put("profileName", user.getProfilename());
+                    userObj.put("phoneNumber", user.getPhoneNumber());
+                    usersArray.put(userObj);
+                }
             }
             
             JSONObject response = new JSONObject();
@@ -264,15 +316,16 @@ public class RestServer {
             String query = exchange.getRequestURI().getQuery();
             String userId = query != null ? query.replace("userId=", "") : "";
             
-            List<Chat> chats = chatRepository.getChatsByUser(userId);
+            List<ConversationSummary> chats = chatRepository.getChatSummariesByUser(userId);
             JSONArray chatsArray = new JSONArray();
             
-            for (Chat chat : chats) {
+            for (ConversationSummary chat : chats) {
                 JSONObject chatObj = new JSONObject();
-                chatObj.put("chatId", chat.getChatId());
-                chatObj.put("userId1", chat.getUserId1());
-                chatObj.put("userId2", chat.getUserId2());
-                chatObj.put("messageCount", chat.getMessages().size());
+                chatObj.put("chatId", chat.getConversationId());
+                chatObj.put("userId1", chat.getParticipants().get(0));
+                chatObj.put("userId2", chat.getParticipants().get(1));
+                chatObj.put("messageCount", chat.getMessageCount());
+                putLastMessage(chatObj, chat);
                 chatsArray.put(chatObj);
             }
             
@@ -298,7 +351,7 @@ public class RestServer {
                 String body = new String(exchange.getRequestBody().readAllBytes());
                 JSONObject json = new JSONObject(body);
                 
-                String messageId = UUID.randomUUID().toString();
+                String messageId = MessageIdGenerator.nextMessageId();
                 String senderId = json.getString("senderId");
                 String content = json.getString("content");
                 String chatId = json.optString("chatId", "");
@@ -308,57 +361,75 @@ public class RestServer {
                 Message message = new Message(messageId, senderId, content);
                 
                 JSONObject response = new JSONObject();
+                CompletableFuture<JSONObject> sent;
                 
                 // Handle group message
                 if (!groupId.isEmpty()) {
-                    Group group = groupRepository.getGroupById(groupId);
-                    if (group != null) {
-                        group.addMessage(message);
-                        groupRepository.updateGroup(group);
-                        response.put("success", true);
-                    } else {
-                        response.put("success", false);
-                        response.put("message", "Group not found");
-                    }
+                    // Membership is usually cached, so a missing group is told apart from a failed write cheaply
+                    sent = groupRepository.getGroupMembersAsync(groupId).thenCompose(members -> {
+                        if (members == null) {
+                            response.put("success", false);
+                            response.put("message", "Group not found");
+                            return CompletableFuture.completedFuture(response);
+                        }
+                        return groupRepository.appendMessageAsync(groupId, message).thenApply(saved -> {
+                            response.put("success", saved);
+                            if (!saved) {
+                                response.put("message", "Failed to send message");
+                            }
+                            return response;
+                        });
+                    });
                 }
                 // Handle private message with friend
                 else if (!receiverId.isEmpty()) {
-                    Chat chat = chatRepository.getPrivateChat(senderId, receiverId);
-                    if (chat == null) {
-                        // Create new private chat if it doesn't exist
-                        chat = new Chat(senderId, receiverId);
-                        chatRepository.saveChat(chat);
-                    }
-                    
-                    chat.addMessage(message);
-                    messageRepository.saveMessage(message);
-                    chatRepository.updateChat(chat);
-                    
-                    response.put("success", true);
-                    response.put("chatId", chat.getChatId());
+                    // Find or atomically create the private chat
+                    sent = chatRepository.getOrCreatePrivateChatAsync(senderId, receiverId).thenCompose(chat -> {
+                        if (chat == null) {
+                            return CompletableFuture.completedFuture(false);
+                        }
+                        response.put("chatId", chat.getChatId());
+                        return chatRepository.appendMessageAsync(chat, message);
+                    }).thenApply(saved -> {
+                        response.put("success", saved);
+                        if (!saved) {
+                            response.put("message", "Failed to send message");
+                        }
+                        return response;
+                    });
                 }
                 // Handle regular chat message
                 else if (!chatId.isEmpty()) {
-                    Chat chat = chatRepository.getChatById(chatId);
-                    if (chat != null) {
-                        chat.addMessage(message);
-                        messageRepository.saveMessage(message);
-                        chatRepository.updateChat(chat);
-                        response.put("success", true);
-                    } else {
-                        response.put("success", false);
-                        response.put("message", "Chat not found");
-                    }
+                    sent = chatRepository.getChatByIdWithoutHistoryAsync(chatId).thenCompose(chat -> {
+                        if (chat == null) {
+                            response.put("success", false);
+                            response.put("message", "Chat not found");
+                            return CompletableFuture.completedFuture(response);
+                        }
+                        return chatRepository.appendMessageAsync(chat, message).thenApply(saved -> {
+                            response.put("success", saved);
+                            if (!saved) {
+                                response.put("message", "Failed to send message");
+                            }
+                            return response;
+                        });
+                    });
                 } else {
                     // Save message anyway
-                    messageRepository.saveMessage(message);
-                    response.put("success", true);
+                    sent = messageRepository.saveMessageAsync(message).thenApply(saved -> {
+                        response.put("success", saved);
+                        if (!saved) {
+                            response.put("message", "Failed to save message");
+                        }
+                        return response;
+                    });
                 }
                 
-                response.put("messageId", messageId);
-                response.put("timestamp", System.currentTimeMillis());
-                
-                sendResponse(exchange, response.toString());
+                respondAsync(exchange, sent.thenApply(done -> {
+                    done.put("messageId", messageId);
+                    done.put("timestamp", System.currentTimeMillis());
+                    return done.toString();
+                }));
             } else {
                 sendError(exchange, 405, "Method not allowed");
             }
@@ -379,14 +450,16 @@ public class RestServer {
             String query = exchange.getRequestURI().getQuery();
             String userId = query != null ? query.replace("userId=", "") : "";
             
-            List<Group> groups = groupRepository.getGroupsByUser(userId);
+            List<ConversationSummary> groups = groupRepository.getGroupSummariesByUser(userId);
             JSONArray groupsArray = new JSONArray();
             
-            for (Group group : groups) {
+            for (ConversationSummary group : groups) {
                 JSONObject groupObj = new JSONObject();
-                groupObj.put("groupId", group.getGroupId());
-                groupObj.put("groupName", group.getGroupName());
-                groupObj.put("memberCount", group.getMembers().size());
+                groupObj.put("groupId", group.getConversationId());
+                groupObj.put("groupName", group.getTitle());
+                groupObj.put("memberCount", group.getParticipants().size());
+                groupObj.put("messageCount", group.getMessageCount());
+                putLastMessage(groupObj, group);
                 groupsArray.put(groupObj);
             }
             
@@ -458,15 +531,13 @@ public class RestServer {
             JSONArray friendsArray = new JSONArray();
             
             if (user != null) {
-                for (String friendId : user.getFriends()) {
-                    User friend = userRepository.getUserById(friendId);
-                    if (friend != null) {
-                        JSONObject friendObj = new JSONObject();
-                        friendObj.put("friendId", friend.getUserId());
-                        friendObj.put("profileName", friend.getProfilename());
-                        friendObj.put("phoneNumber", friend.getPhoneNumber());
-                        friendsArray.put(friendObj);
-                    }
+                // Resolve every friend with one batched query
+                for (User friend : userRepository.getUsersByIds(user.getFriends())) {
+                    JSONObject friendObj = new JSONObject();
+                    friendObj.put("friendId", friend.getUserId());
+                    friendObj.put("profileName", friend.getProfilename());
+                    friendObj.put("phoneNumber", friend.getPhoneNumber());
+                    friendsArray.put(friendObj);
                 }
             }
             
@@ -496,15 +567,7 @@ public class RestServer {
                 String friendPhoneNumber = json.getString("friendPhoneNumber");
                 
                 User user = userRepository.getUserById(userId);
-                User friendUser = null;
-                List<User> allUsers = userRepository.getAllUsers();
-                
-                for (User u : allUsers) {
-                    if (u.getPhoneNumber().equals(friendPhoneNumber)) {
-                        friendUser = u;
-                        break;
-                    }
-                }
+                User friendUser = userRepository.findByPhoneNumber(friendPhoneNumber);
                 
                 JSONObject response = new JSONObject();
                 if (user != null && friendUser != null) {
@@ -542,23 +605,54 @@ public class RestServer {
             String query = exchange.getRequestURI().getQuery();
             String userId = query != null ? query.replace("userId=", "") : "";
             
-            User user = userRepository.getUserById(userId);
-            JSONObject response = new JSONObject();
+            respondAsync(exchange, profileJsonAsync(userId, true));
+        }
+    }
+    
+    // Profile stats handler - counters only, served from indexes
+    private class ProfileStatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            enableCORS(exchange);
             
-            if (user != null) {
-                response.put("userId", user.getUserId());
-                response.put("profileName", user.getProfilename());
-                response.put("phoneNumber", user.getPhoneNumber());
-                response.put("friendCount", user.getFriends().size());
-                response.put("chatCount", chatRepository.getChatsByUser(userId).size());
-                response.put("groupCount", groupRepository.getGroupsByUser(userId).size());
+            if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                handleOptions(exchange);
+                return;
             }
             
-            sendResponse(exchange, response.toString());
+            String query = exchange.getRequestURI().getQuery();
+            String userId = query != null ? query.replace("userId=", "") : "";
+            
+            respondAsync(exchange, profileJsonAsync(userId, false));
         }
     }
     
     // Helper methods
+    
+    // Profile counters for userId, plus name and phone number when withDetails; empty if the user is unknown.
+    // The user and both counters are independent reads, so they run together.
+    private CompletableFuture<String> profileJsonAsync(String userId, boolean withDetails) {
+        CompletableFuture<User> user = userRepository.getUserByIdAsync(userId);
+        CompletableFuture<Long> chatCount = chatRepository.countChatsByUserAsync(userId);
+        CompletableFuture<Long> groupCount = groupRepository.countGroupsByUserAsync(userId);
+        
+        return CompletableFuture.allOf(user, chatCount, groupCount).thenApply(done -> {
+            JSONObject response = new JSONObject();
+            User found = user.join();
+            if (found != null) {
+                response.put("userId", found.getUserId());
+                if (withDetails) {
+                    response.put("profileName", found.getProfilename());
+                    response.put("phoneNumber", found.getPhoneNumber());
+                }
+                response.put("friendCount", found.getFriends().size());
+                response.put("chatCount", chatCount.join());
+                response.put("groupCount", groupCount.join());
+            }
+            return response.toString();
+        });
+    }
+    
     private void enableCORS(HttpExchange exchange) {
         exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
         exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
@@ -581,6 +675,58 @@ public class RestServer {
         exchange.close();
     }
     
+    private void putLastMessage(JSONObject obj, ConversationSummary summary) {
+        if (summary.getLastActivityAt() != null) {
+            obj.put("lastMessage", summary.getLastMessagePreview());
+            obj.put("lastSenderId", summary.getLastSenderId());
+            obj.put("lastActivity", summary.getLastActivityAt().getTime());
+        }
+    }
+    
+    private String getQueryParam(String query, String name) {
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+    
+    private Long parseCursor(String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private int parseLimit(String value) {
+        if (value == null || value.isEmpty()) return DEFAULT_PAGE_SIZE;
+        try {
+            return Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_PAGE_SIZE;
+        }
+    }
+    
+    // Send the response once it is ready, without holding an executor thread meanwhile
+    private void respondAsync(HttpExchange exchange, CompletableFuture<String> response) {
+        response.whenComplete((body, error) -> {
+            try {
+                if (error != null) {
+                    System.out.println("✗ Error handling request: " + error.getMessage());
+                    sendError(exchange, 500, "Internal server error");
+                } else {
+                    sendResponse(exchange, body);
+                }
+            } catch (IOException e) {
+                System.out.println("✗ Error sending response: " + e.getMessage());
+            }
+        });
+    }
+    
     private void sendError(HttpExchange exchange, int code, String message) throws IOException {
         JSONObject error = new JSONObject();
         error.put("error", message);
@@ -625,48 +771,45 @@ public class RestServer {
                 }
             }
             
-            List<Message> messages = new ArrayList<>();
+            Long before = parseCursor(getQueryParam(query, "before"));
+            Long after = parseCursor(getQueryParam(query, "after"));
+            int limit = parseLimit(getQueryParam(query, "limit"));
+            
+            CompletableFuture<String> conversationId;
             
-            // If groupId is provided, get messages from group
+            // If groupId is provided, page through the group's messages
             if (groupId != null && !groupId.isEmpty()) {
-                Group group = groupRepository.getGroupById(groupId);
-                if (group != null) {
-                    messages = group.getMessages();
-                }
+                conversationId = CompletableFuture.completedFuture(groupId);
             } 
-            // If chatId is provided, get messages from private chat
+            // If chatId is provided, page through the private chat's messages
             else if (chatId != null && !chatId.isEmpty()) {
-                Chat chat = chatRepository.getChatById(chatId);
-                if (chat != null) {
-                    messages = chat.getMessages();
-                }
+                conversationId = CompletableFuture.completedFuture(chatId);
             }
-            // If both userIds are provided, get or create a private chat and get messages
+            // If both userIds are provided, resolve their private chat without loading history
             else if (userId1 != null && userId2 != null && !userId1.isEmpty() && !userId2.isEmpty()) {
-                Chat chat = chatRepository.getPrivateChat(userId1, userId2);
-                if (chat != null) {
-                    messages = chat.getMessages();
-                }
-            }
-            
-            // Sort messages by timestamp (chronologically)
-            messages.sort((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()));
-            
-            JSONArray messagesArray = new JSONArray();
-            for (Message msg : messages) {
-                JSONObject msgObj = new JSONObject();
-                msgObj.put("messageId", msg.getMessageId());
-                msgObj.put("senderId", msg.getSenderId());
-                msgObj.put("content", msg.getContent());
-                msgObj.put("timestamp", msg.getTimestamp().getTime());
-                msgObj.put("isReply", msg.isReply());
-                messagesArray.put(msgObj);
+                conversationId = chatRepository.getPrivateChatWithoutHistoryAsync(userId1, userId2)
+                        .thenApply(chat -> chat != null ? chat.getChatId() : null);
+            } else {
+                conversationId = CompletableFuture.completedFuture(null);
             }
             
-            JSONObject response = new JSONObject();
-            response.put("messages", messagesArray);
-            
-            sendResponse(exchange, response.toString());
+            // Messages come back in sequence (chronological) order straight from the index
+            CompletableFuture<MessagePage> page = conversationId.thenCompose(id -> id != null
+                    ? messageRepository.getConversationPageAsync(id, before, after, limit)
+                    : CompletableFuture.completedFuture(new MessagePage(new ArrayList<>(), false)));
+            
+            // Hot pages arrive already encoded; splice them in without re-parsing
+            respondAsync(exchange, page.thenApply(result -> {
+                StringBuilder response = new StringBuilder();
+                response.append("{\"messages\":").append(result.toJson());
+                response.append(",\"hasMore\":").append(result.hasMore());
+                if (!result.isEmpty()) {
+                    response.append(",\"before\":").append(result.getOldestSequence());
+                    response.append(",\"after\":").append(result.getNewestSequence());
+                }
+                response.append('}');
+                return response.toString();
+            }));
         }
     }
     
@@ -0,0 +1,89 @@
+package com.whatsapp;
+
+/**
+ * Wires one set of repositories for the chosen storage backend.
+ * Selected at startup with the STORAGE_ENGINE environment variable
+ * (or -Dstorage.engine): "mongo" (default) or "memory" for running
+ * fully offline in benchmarks and CI soak tests.
+ */
+public class StorageEngine {
+    public static final String MONGO = "mongo";
+    public static final String MEMORY = "memory";
+
+    private final String name;
+    private final UserRepository userRepository;
+    private final MessageRepository messageRepository;
+    private final ChatRepository chatRepository;
+    private final GroupRepository groupRepository;
+
+    private StorageEngine(String name, UserRepository userRepository, MessageRepository messageRepository,
+                          ChatRepository chatRepository, GroupRepository groupRepository) {
+        this.name = name;
+        this.userRepository = userRepository;
+        this.messageRepository = messageRepository;
+        this.chatRepository = chatRepository;
+        this.groupRepository = groupRepository;
+    }
+
+    public static StorageEngine fromEnvironment() {
+        String engine = System.getProperty("storage.engine", System.getenv("STORAGE_ENGINE"));
+        if (engine == null || engine.isEmpty() || MONGO.equalsIgnoreCase(engine)) {
+            return mongo();
+        }
+        if (MEMORY.equalsIgnoreCase(engine)) {
+            return inMemory();
+        }
+        System.out.println("Warning: Unknown STORAGE_ENGINE value '" + engine + "', using default: " + MONGO);
+        return mongo();
+    }
+
+    public static StorageEngine mongo() {
+        DatabaseConnection.getInstance();
+        MongoMessageRepository mongoMessages = new MongoMessageRepository();
+        MessageRepository messages = mongoMessages;
+        HotHistoryStore hotHistory = HotHistoryStore.fromEnvironment();
+        if (hotHistory != null) {
+            messages = new HotHistoryMessageRepository(mongoMessages, hotHistory);
+        }
+        return new StorageEngine(MONGO, CachingUserRepository.wrapFromEnvironment(new MongoUserRepository()), messages,
+                new MongoChatRepository(messages, mongoMessages), new CachingGroupRepository(new MongoGroupRepository(messages, mongoMessages)));
+    }
+
+    public static StorageEngine inMemory() {
+        InMemoryMessageRepository messages = new InMemoryMessageRepository();
+        System.out.println("✓ Using in-memory storage engine (data is not persisted)");
+        return new StorageEngine(MEMORY, new InMemoryUserRepository(), messages,
+                new InMemoryChatRepository(messages), new InMemoryGroupRepository(messages));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UserRepository getUserRepository() {
+        return userRepository;
+    }
+
+    public MessageRepository getMessageRepository() {
+        return messageRepository;
+    }
+
+    public ChatRepository getChatRepository() {
+        return chatRepository;
+    }
+
+    public GroupRepository getGroupRepository() {
+        return groupRepository;
+    }
+
+    // Flush pending writes and release the backend
+    public void close() {
+        if (userRepository instanceof CachingUserRepository) {
+            System.out.println("✓ User cache: " + ((CachingUserRepository) userRepository).getStatsLine());
+        }
+        messageRepository.close();
+        if (MONGO.equals(name)) {
+            DatabaseConnection.getInstance().close();
+        }
+    }
+}
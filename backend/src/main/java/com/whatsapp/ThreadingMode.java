@@ -0,0 +1,91 @@
+package com.whatsapp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the threads behind the request-handling executors.
+ * With thread.mode / THREAD_MODE set to "virtual" on a JDK with virtual
+ * threads (21+), every task gets its own virtual thread, so handlers blocked
+ * on MongoDB park instead of holding a platform thread. Otherwise, and by
+ * default, each executor is a fixed pool of daemon platform threads.
+ *
+ * Virtual threads are created reflectively so the code still builds and
+ * runs on JDK 17; the jdk21 Maven profile turns the mode on.
+ */
+public final class ThreadingMode {
+    private static final boolean VIRTUAL = resolveVirtual();
+
+    private ThreadingMode() {
+    }
+
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    /**
+     * Executor for blocking handler work: one virtual thread per task in
+     * virtual mode, otherwise platformThreads threads named namePrefix-N
+     */
+    public static ExecutorService newExecutor(String namePrefix, int platformThreads) {
+        return newExecutor(namePrefix, platformThreads, VIRTUAL);
+    }
+
+    // The same, with the mode chosen by the caller; used to compare the two side by side
+    static ExecutorService newExecutor(String namePrefix, int platformThreads, boolean virtual) {
+        if (virtual) {
+            try {
+                return newVirtualThreadExecutor(namePrefix);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("✗ Could not create virtual threads for " + namePrefix + ": " + e.getMessage());
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(platformThreads, factory);
+    }
+
+    // Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix + "-", 1).factory())
+    private static ExecutorService newVirtualThreadExecutor(String namePrefix) throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 1L);
+        ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        return (ExecutorService) perTask.invoke(null, factory);
+    }
+
+    static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean resolveVirtual() {
+        String mode = System.getProperty("thread.mode", System.getenv("THREAD_MODE"));
+        if (mode == null || mode.isEmpty() || "platform".equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if (!"virtual".equalsIgnoreCase(mode)) {
+            System.out.println("Warning: Unknown thread mode '" + mode + "', using platform threads");
+            return false;
+        }
+        if (!virtualThreadsAvailable()) {
+            System.out.println("Warning: Virtual threads need JDK 21 or newer (running "
+                    + Runtime.version().feature() + "), using platform threads");
+            return false;
+        }
+        System.out.println("✓ Handling requests on virtual threads");
+        return true;
+    }
+}
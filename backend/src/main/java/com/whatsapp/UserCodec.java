@@ -0,0 +1,53 @@
+package com.whatsapp;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import java.util.*;
+
+/**
+ * User documents of the users collection. Fields left out by a projection
+ * decode as null, and a missing friends list as an empty one.
+ */
+public class UserCodec implements Codec<User> {
+    @Override
+    public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        DomainCodecs.writeString(writer, "userId", user.getUserId());
+        DomainCodecs.writeString(writer, "profilename", user.getProfilename());
+        DomainCodecs.writeString(writer, "phoneNumber", user.getPhoneNumber());
+        DomainCodecs.writeStringList(writer, "friends", user.getFriends());
+        writer.writeDateTime("lastUpdated", System.currentTimeMillis());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public User decode(BsonReader reader, DecoderContext decoderContext) {
+        String userId = null;
+        String profilename = null;
+        String phoneNumber = null;
+        List<String> friends = Collections.emptyList();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "userId": userId = DomainCodecs.readString(reader); break;
+                case "profilename": profilename = DomainCodecs.readString(reader); break;
+                case "phoneNumber": phoneNumber = DomainCodecs.readString(reader); break;
+                case "friends": friends = DomainCodecs.readStringList(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new User(userId, profilename, phoneNumber, friends);
+    }
+
+    @Override
+    public Class<User> getEncoderClass() {
+        return User.class;
+    }
+}
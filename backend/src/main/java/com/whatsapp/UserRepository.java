@@ -1,114 +1,45 @@
 package com.whatsapp;
 
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.model.Filters;
-import org.bson.Document;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
-public class UserRepository {
-    private MongoCollection<Document> userCollection;
-    private static final String COLLECTION_NAME = "users";
+/**
+ * Storage for user profiles and friend lists.
+ * Implemented by MongoUserRepository and InMemoryUserRepository.
+ * The *Async variants run the blocking call on RepositoryExecutor.
+ */
+public interface UserRepository {
+    // Store a new user; false if the userId or phone number is already taken
+    boolean saveUser(User user);
 
-    public UserRepository() {
-        this.userCollection = DatabaseConnection.getInstance().getCollection(COLLECTION_NAME);
+    User getUserById(String userId);
+
+    default CompletableFuture<User> getUserByIdAsync(String userId) {
+        return RepositoryExecutor.supply(() -> getUserById(userId));
     }
 
-    // Push User to Database
-    public boolean saveUser(User user) {
-        try {
-            Document userDoc = new Document()
-                    .append("userId", user.getUserId())
-                    .append("profilename", user.getProfilename())
-                    .append("phoneNumber", user.getPhoneNumber())
-                    .append("friends", user.getFriends())
-                    .append("lastUpdated", new Date());
+    // Display details (id, profile name, phone) for many users, in the order of userIds
+    List<User> getUsersByIds(Collection<String> userIds);
 
-            userCollection.insertOne(userDoc);
-            System.out.println("✓ User saved to database: " + user.getUserId());
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error saving user to database: " + e.getMessage());
-            return false;
-        }
+    default CompletableFuture<List<User>> getUsersByIdsAsync(Collection<String> userIds) {
+        return RepositoryExecutor.supply(() -> getUsersByIds(userIds));
     }
 
-    // Pull User from Database
-    public User getUserById(String userId) {
-        try {
-            Document userDoc = userCollection.find(Filters.eq("userId", userId)).first();
-            
-            if (userDoc != null) {
-                @SuppressWarnings("unchecked")
-                List<String> friends = (List<String>) userDoc.get("friends");
-                if (friends == null) friends = new ArrayList<>();
+    User findByPhoneNumber(String phoneNumber);
 
-                User user = new User(
-                        userDoc.getString("userId"),
-                        userDoc.getString("profilename"),
-                        userDoc.getString("phoneNumber"),
-                        friends
-                );
-                return user;
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving user: " + e.getMessage());
-        }
-        return null;
+    default CompletableFuture<User> findByPhoneNumberAsync(String phoneNumber) {
+        return RepositoryExecutor.supply(() -> findByPhoneNumber(phoneNumber));
     }
 
-    // Get all users
-    public List<User> getAllUsers() {
-        List<User> users = new ArrayList<>();
-        try {
-            for (Document userDoc : userCollection.find()) {
-                @SuppressWarnings("unchecked")
-                List<String> friends = (List<String>) userDoc.get("friends");
-                if (friends == null) friends = new ArrayList<>();
+    // Users for many phone numbers, keyed by phone number
+    Map<String, User> findByPhoneNumbers(Collection<String> phoneNumbers);
 
-                User user = new User(
-                        userDoc.getString("userId"),
-                        userDoc.getString("profilename"),
-                        userDoc.getString("phoneNumber"),
-                        friends
-                );
-                users.add(user);
-            }
-        } catch (Exception e) {
-            System.out.println("✗ Error retrieving all users: " + e.getMessage());
-        }
-        return users;
-    }
+    List<User> getAllUsers();
 
-    // Update User
-    public boolean updateUser(User user) {
-        try {
-            Document updateDoc = new Document()
-                    .append("profilename", user.getProfilename())
-                    .append("phoneNumber", user.getPhoneNumber())
-                    .append("friends", user.getFriends())
-                    .append("lastUpdated", new Date());
+    // Cursor-backed variant of getAllUsers for results too large to hold in memory
+    RecordCursor<User> streamAllUsers(int batchSize);
 
-            userCollection.updateOne(
-                    Filters.eq("userId", user.getUserId()),
-                    new Document("$set", updateDoc)
-            );
-            System.out.println("✓ User updated in database: " + user.getUserId());
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error updating user: " + e.getMessage());
-            return false;
-        }
-    }
+    boolean updateUser(User user);
 
-    // Delete User
-    public boolean deleteUser(String userId) {
-        try {
-            userCollection.deleteOne(Filters.eq("userId", userId));
-            System.out.println("✓ User deleted from database: " + userId);
-            return true;
-        } catch (Exception e) {
-            System.out.println("✗ Error deleting user: " + e.getMessage());
-            return false;
-        }
-    }
+    boolean deleteUser(String userId);
 }
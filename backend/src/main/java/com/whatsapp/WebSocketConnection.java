@@ -1,65 +1,306 @@
 package com.whatsapp;
 
 import java.io.*;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
 import org.json.JSONObject;
 
 /**
  * Represents a WebSocket connection for a user
  * Handles sending and receiving messages
+ *
+ * The channel belongs to one WebSocketEventLoop, which feeds received bytes
+ * to onBytes. Complete messages are handled on the worker pool in arrival
+ * order; while MAX_QUEUED_MESSAGES wait, reading pauses. send() writes
+ * straight to the channel when it can, and otherwise queues at most
+ * MAX_OUTBOUND_BYTES for the loop to write, closing slow consumers beyond it.
+ *
+ * Legacy clients that greet with a raw JSON line keep exchanging
+ * newline-delimited JSON. After an HTTP upgrade the connection speaks
+ * RFC 6455 frames: the loop decodes them straight from its read buffer and
+ * answers ping and close itself, and messages are sent as text frames,
+ * compressed with permessage-deflate when the client negotiated it.
  */
 public class WebSocketConnection {
-    private Socket socket;
-    private String userId;
-    private PrintWriter out;
-    private BufferedReader in;
-    private boolean connected;
+    private static final int MAX_MESSAGE_BYTES = 64 * 1024;
+    private static final int MAX_QUEUED_MESSAGES = 256;
+    private static final long MAX_OUTBOUND_BYTES = 1024 * 1024;
+
+    // How far the loop has followed an HTTP request on this connection
+    private static final int REQUEST_FIRST_LINE = 0;
+    private static final int REQUEST_HEADERS = 1;
+    private static final int REQUEST_DONE = 2;
+
+    private final SocketChannel channel;
+    private final WebSocketEventLoop loop;
+    private final ExecutorService workers;
+    private final WebSocketServer server;
+    private SelectionKey key;
+    private volatile String userId;
+    private volatile boolean open;
+    private final AtomicBoolean closed = new AtomicBoolean();
     private WebSocketManager manager;
     private UserRepository userRepository;
     private MessageRepository messageRepository;
     private GroupRepository groupRepository;
     private ChatRepository chatRepository;
-    
-    public WebSocketConnection(Socket socket, String userId, WebSocketManager manager, 
-                               UserRepository userRepository, MessageRepository messageRepository, 
+
+    // Inbound: a partial line carried between reads, and messages waiting for a worker
+    private ByteBuffer partialLine;
+    private int requestState = REQUEST_FIRST_LINE;
+    private boolean upgradeRequested;
+    private WebSocketFrameDecoder frameDecoder;
+    private FrameListener frameListener;
+    private volatile boolean framed;
+    private volatile PerMessageDeflate deflate;
+    private final AtomicBoolean closeFrameSent = new AtomicBoolean();
+    private final AtomicBoolean closeAfterDrain = new AtomicBoolean();
+    private final Queue<String> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean readPaused;
+    private List<String> handshakeLines;
+
+    // Outbound: bytes the channel did not accept yet, guarded by outboundLock
+    private final Object outboundLock = new Object();
+    private ArrayDeque<ByteBuffer> outbound;
+    private long outboundBytes;
+    private boolean closeWhenFlushed;
+
+    public WebSocketConnection(SocketChannel channel, WebSocketEventLoop loop, ExecutorService workers,
+                               WebSocketServer server, WebSocketManager manager,
+                               UserRepository userRepository, MessageRepository messageRepository,
                                GroupRepository groupRepository, ChatRepository chatRepository) {
-        this.socket = socket;
-        this.userId = userId;
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+        this.server = server;
         this.manager = manager;
         this.userRepository = userRepository;
         this.messageRepository = messageRepository;
         this.groupRepository = groupRepository;
         this.chatRepository = chatRepository;
-        this.connected = true;
-        
-        try {
-            this.out = new PrintWriter(socket.getOutputStream(), true);
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        } catch (IOException e) {
-            System.out.println("✗ Error initializing WebSocket connection: " + e.getMessage());
-            this.connected = false;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    // Called on the loop thread once the channel is registered
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    // The handshake is done; later lines are chat messages from userId
+    void open(String userId) {
+        this.userId = userId;
+        this.open = true;
+        this.handshakeLines = null;
+    }
+
+    // Called by the server before it accepts the upgrade with permessage-deflate
+    void enableCompression(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+        frameDecoder.allowRsv1(true);
+    }
+
+    List<String> getHandshakeLines() {
+        if (handshakeLines == null) {
+            handshakeLines = new ArrayList<>();
         }
+        return handshakeLines;
     }
-    
+
     /**
-     * Start listening for incoming messages from this connection
+     * Decode bytes read by the event loop, as frames once upgraded and as
+     * lines before that, and queue the messages for a worker
      */
-    public void startListening() {
-        new Thread(() -> {
-            try {
-                String message;
-                while (connected && (message = in.readLine()) != null) {
-                    handleMessage(message);
+    void onBytes(ByteBuffer data) {
+        if (frameDecoder != null) {
+            frameDecoder.decode(data, frameListener);
+            return;
+        }
+        while (data.hasRemaining()) {
+            int newline = indexOf(data, (byte) '\n');
+            if (newline < 0) {
+                partialLine = WebSocketFrameDecoder.append(partialLine, data, data.remaining());
+                if (partialLine.position() > MAX_MESSAGE_BYTES) {
+                    System.out.println("✗ WebSocket message too large, closing connection");
+                    close();
                 }
-            } catch (IOException e) {
-                System.out.println("✗ WebSocket connection error: " + e.getMessage());
-            } finally {
+                return;
+            }
+
+            byte[] line;
+            int length = newline - data.position();
+            if (partialLine == null) {
+                line = new byte[length];
+                data.get(line);
+            } else {
+                ByteBuffer whole = WebSocketFrameDecoder.append(partialLine, data, length);
+                partialLine = null;
+                line = Arrays.copyOf(whole.array(), whole.position());
+            }
+            data.get();
+            int end = line.length > 0 && line[line.length - 1] == '\r' ? line.length - 1 : line.length;
+            String text = new String(line, 0, end, StandardCharsets.UTF_8);
+            followRequest(text);
+            enqueueInbound(text);
+            if (frameDecoder != null) {
+                // The upgrade request ended; whatever follows it is already framed
+                frameDecoder.decode(data, frameListener);
+                return;
+            }
+        }
+    }
+
+    // Watch the HTTP request on the loop thread, so the bytes after an upgrade
+    // request are decoded as frames before a worker has answered it
+    private void followRequest(String line) {
+        if (requestState == REQUEST_FIRST_LINE) {
+            requestState = line.startsWith("GET") ? REQUEST_HEADERS : REQUEST_DONE;
+        } else if (requestState == REQUEST_HEADERS) {
+            if (line.trim().isEmpty()) {
+                requestState = REQUEST_DONE;
+                if (upgradeRequested) {
+                    framed = true;
+                    frameDecoder = new WebSocketFrameDecoder(MAX_MESSAGE_BYTES);
+                    frameListener = new FrameListener();
+                }
+                return;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("upgrade")
+                    && line.substring(colon + 1).trim().equalsIgnoreCase("websocket")) {
+                upgradeRequested = true;
+            }
+        }
+    }
+
+    /**
+     * Frames decoded on the event loop thread
+     */
+    private class FrameListener implements WebSocketFrameDecoder.Listener {
+        @Override
+        public void onMessage(boolean text, boolean compressed, ByteBuffer payload) {
+            if (!text) {
+                closeWithStatus(WebSocketFrameDecoder.CLOSE_UNSUPPORTED_DATA, "Binary messages are not supported");
+                return;
+            }
+            if (compressed) {
+                try {
+                    payload = deflate.inflate(payload, MAX_MESSAGE_BYTES);
+                } catch (DataFormatException e) {
+                    closeWithStatus(WebSocketFrameDecoder.CLOSE_INVALID_PAYLOAD, "Invalid compressed data");
+                    return;
+                }
+                if (payload == null) {
+                    closeWithStatus(WebSocketFrameDecoder.CLOSE_MESSAGE_TOO_BIG, "Message too large");
+                    return;
+                }
+            }
+            try {
+                enqueueInbound(StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(payload)
+                        .toString());
+            } catch (CharacterCodingException e) {
+                closeWithStatus(WebSocketFrameDecoder.CLOSE_INVALID_PAYLOAD, "Invalid UTF-8");
+            }
+        }
+
+        @Override
+        public void onPing(ByteBuffer payload) {
+            if (!closeFrameSent.get()) {
+                write(WebSocketFrameEncoder.control(WebSocketFrameDecoder.OP_PONG, payload));
+            }
+        }
+
+        @Override
+        public void onPong(ByteBuffer payload) {
+            // Unsolicited pongs are allowed and need no answer
+        }
+
+        @Override
+        public void onClose(int code, ByteBuffer reason) {
+            // Echo the close, then close once the messages before it are handled
+            if (closeFrameSent.compareAndSet(false, true)) {
+                write(code == WebSocketFrameDecoder.CLOSE_NO_STATUS
+                        ? WebSocketFrameEncoder.control(WebSocketFrameDecoder.OP_CLOSE, ByteBuffer.allocate(0))
+                        : WebSocketFrameEncoder.close(code, null));
+            }
+            closeAfterDrain.set(true);
+            scheduleDrain();
+        }
+
+        @Override
+        public void onProtocolError(int closeCode, String reason) {
+            System.out.println("✗ WebSocket protocol error" + (userId != null ? " from " + userId : "") + ": " + reason);
+            closeWithStatus(closeCode, reason);
+        }
+    }
+
+    private void enqueueInbound(String message) {
+        inbound.add(message);
+        if (queuedMessages.incrementAndGet() >= MAX_QUEUED_MESSAGES && !readPaused) {
+            // Stop reading until the workers catch up
+            readPaused = true;
+            setInterest(SelectionKey.OP_READ, false);
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::drainInbound);
+            } catch (RejectedExecutionException e) {
                 close();
             }
-        }).start();
+        }
     }
-    
+
+    // Handle queued messages one at a time, so each connection's messages keep their order
+    private void drainInbound() {
+        String message;
+        while ((message = inbound.poll()) != null) {
+            queuedMessages.decrementAndGet();
+            if (closed.get()) {
+                continue;
+            }
+            if (open) {
+                handleMessage(message);
+            } else {
+                server.handleHandshakeLine(this, message);
+            }
+        }
+        if (closeAfterDrain.compareAndSet(true, false)) {
+            closeWhenFlushed();
+        }
+        if (readPaused && queuedMessages.get() < MAX_QUEUED_MESSAGES / 2) {
+            readPaused = false;
+            setInterest(SelectionKey.OP_READ, true);
+        }
+        draining.set(false);
+        // Re-check after releasing: a message or a pause may have arrived meanwhile
+        if (!inbound.isEmpty() || closeAfterDrain.get() || (readPaused && queuedMessages.get() < MAX_QUEUED_MESSAGES / 2)) {
+            scheduleDrain();
+        }
+    }
+
     /**
      * Process incoming WebSocket message
      */
@@ -113,25 +354,45 @@ public class WebSocketConnection {
         String receiverId = json.getString("receiverId");
         String content = json.getString("content");
         
-        // Verify receiver exists
-        User receiver = userRepository.getUserById(receiverId);
-        if (receiver == null) {
-            sendError("✗ Recipient user not found");
-            return;
-        }
-        
-        // Get or create a private chat between these two users
-        Chat chat = chatRepository.getPrivateChat(userId, receiverId);
-        if (chat == null) {
-            chat = new Chat(userId, receiverId);
-            chatRepository.saveChat(chat);
-        }
-        
-        // Create and save message to the chat
-        Message message = new Message(UUID.randomUUID().toString(), userId, content);
-        chat.addMessage(message);
-        messageRepository.saveMessage(message);
-        chatRepository.updateChat(chat);
+        // Verify the receiver and look up the existing chat at the same time;
+        // the chat is only created once the receiver is known to exist.
+        // Nothing here blocks the worker: the message goes out from the completion.
+        CompletableFuture<User> receiver = userRepository.getUserByIdAsync(receiverId);
+        CompletableFuture<Chat> existingChat = chatRepository.getPrivateChatWithoutHistoryAsync(userId, receiverId);
+        receiver.thenCompose(user -> {
+            if (user == null) {
+                sendError("✗ Recipient user not found");
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            return existingChat.thenCompose(chat -> chat != null
+                    ? CompletableFuture.completedFuture(chat)
+                    : chatRepository.getOrCreatePrivateChatAsync(userId, receiverId)
+            ).handle((chat, error) -> {
+                if (error != null) {
+                    System.out.println("✗ Error resolving direct message: " + error.getMessage());
+                }
+                if (chat == null) {
+                    sendError("✗ Could not open chat");
+                } else {
+                    deliverDirectMessage(chat, receiverId, content);
+                }
+                return null;
+            });
+        }).exceptionally(error -> {
+            System.out.println("✗ Error resolving direct message: " + error.getMessage());
+            sendError("✗ Could not open chat");
+            return null;
+        });
+    }
+    
+    /**
+     * Store a direct message in its chat and deliver it to the recipient
+     */
+    private void deliverDirectMessage(Chat chat, String receiverId, String content) {
+        // Create the message and queue it for the next batched insert
+        Message message = new Message(MessageIdGenerator.nextMessageId(), userId, content);
+        String chatId = chat.getChatId();
+        CompletableFuture<Boolean> durable = chatRepository.appendMessageAsync(chat, message);
         
         // Send message ONLY to the specific recipient (NOT broadcast)
         JSONObject privateMessage = new JSONObject();
@@ -139,24 +400,31 @@ public class WebSocketConnection {
         privateMessage.put("senderId", userId);
         privateMessage.put("messageId", message.getMessageId());
         privateMessage.put("content", content);
-        privateMessage.put("chatId", chat.getChatId());
+        privateMessage.put("chatId", chatId);
         privateMessage.put("timestamp", System.currentTimeMillis());
         
         // Only send to the intended recipient
         manager.sendPrivateMessage(receiverId, privateMessage.toString());
         
-        // Send confirmation back to sender
-        JSONObject confirmation = new JSONObject();
-        confirmation.put("type", "message_sent");
-        confirmation.put("messageId", message.getMessageId());
-        confirmation.put("chatId", chat.getChatId());
-        confirmation.put("timestamp", System.currentTimeMillis());
-        
-        try {
-            send(confirmation.toString());
-        } catch (IOException e) {
-            System.out.println("✗ Error sending confirmation: " + e.getMessage());
-        }
+        // Confirm to the sender once the batch holding the message is written
+        durable.thenAccept(saved -> {
+            if (!saved) {
+                sendError("✗ Message could not be saved");
+                return;
+            }
+            
+            JSONObject confirmation = new JSONObject();
+            confirmation.put("type", "message_sent");
+            confirmation.put("messageId", message.getMessageId());
+            confirmation.put("chatId", chatId);
+            confirmation.put("timestamp", System.currentTimeMillis());
+            
+            try {
+                send(confirmation.toString());
+            } catch (IOException e) {
+                System.out.println("✗ Error sending confirmation: " + e.getMessage());
+            }
+        });
     }
     
     /**
@@ -166,16 +434,18 @@ public class WebSocketConnection {
         String groupId = json.getString("groupId");
         String content = json.getString("content");
         
-        // Get group and add message
-        Group group = groupRepository.getGroupById(groupId);
-        if (group != null && group.getMembers().contains(userId)) {
-            Message message = new Message(UUID.randomUUID().toString(), userId, content);
-            group.addMessage(message);
-            messageRepository.saveMessage(message);
-            groupRepository.updateGroup(group);
+        // Membership comes from the member set alone, never the group's messages
+        Set<String> members = groupRepository.getGroupMembers(groupId);
+        if (members != null && members.contains(userId)) {
+            Message message = new Message(MessageIdGenerator.nextMessageId(), userId, content);
+            groupRepository.appendMessageAsync(groupId, message).thenAccept(saved -> {
+                if (!saved) {
+                    sendError("✗ Message could not be saved");
+                }
+            });
             
-            // Broadcast to all group members
-            manager.broadcastToGroup(groupId, content, userId);
+            // Broadcast to all online group members
+            manager.broadcastToGroupMembers(groupId, members, content, userId);
         } else {
             sendError("Not a member of this group");
         }
@@ -234,12 +504,137 @@ public class WebSocketConnection {
      * Send message to client
      */
     public void send(String message) throws IOException {
-        if (connected && out != null) {
-            out.println(message);
-            out.flush();
+        if (isConnected()) {
+            sendText(message);
         }
     }
-    
+
+    // Send one message, also before the connection is open: a text frame once
+    // upgraded, otherwise a newline-terminated line
+    void sendText(String message) throws IOException {
+        if (!framed) {
+            if (!write(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)))) {
+                throw new IOException("Connection closed");
+            }
+            return;
+        }
+        if (closeFrameSent.get()) {
+            return;
+        }
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        PerMessageDeflate deflate = this.deflate;
+        boolean written;
+        if (deflate != null && deflate.shouldCompress(payload.length)) {
+            // Compress and write together, so frames leave in the order the shared window saw them
+            synchronized (deflate.deflateLock()) {
+                written = !closed.get() && write(WebSocketFrameEncoder.frame(WebSocketFrameDecoder.OP_TEXT, true,
+                        deflate.deflate(payload)));
+            }
+        } else {
+            written = write(WebSocketFrameEncoder.frame(WebSocketFrameDecoder.OP_TEXT, false, ByteBuffer.wrap(payload)));
+        }
+        if (!written) {
+            throw new IOException("Connection closed");
+        }
+    }
+
+    // Send bytes as they are, e.g. an HTTP response during the handshake
+    void sendRaw(byte[] bytes) {
+        write(ByteBuffer.wrap(bytes));
+    }
+
+    // Write now if nothing is queued ahead, otherwise queue for the event loop.
+    // Several buffers (a frame header and its payload) go out in one gathering write.
+    // Returns false if the connection is closed or was closed for falling behind.
+    private boolean write(ByteBuffer... buffers) {
+        long remaining = 0;
+        synchronized (outboundLock) {
+            if (closed.get()) {
+                return false;
+            }
+            try {
+                if (outbound == null || outbound.isEmpty()) {
+                    channel.write(buffers);
+                }
+                remaining = remaining(buffers);
+                if (remaining == 0) {
+                    return true;
+                }
+            } catch (IOException e) {
+                buffers = null;
+            }
+            if (buffers != null && outboundBytes + remaining <= MAX_OUTBOUND_BYTES) {
+                if (outbound == null) {
+                    outbound = new ArrayDeque<>();
+                }
+                boolean first = outbound.isEmpty();
+                for (ByteBuffer buffer : buffers) {
+                    if (buffer.hasRemaining()) {
+                        outbound.add(buffer);
+                    }
+                }
+                outboundBytes += remaining;
+                if (first) {
+                    setInterest(SelectionKey.OP_WRITE, true);
+                }
+                return true;
+            }
+        }
+        // Close on the loop rather than here: close() notifies the manager, which sends to
+        // other connections, and when many clients drop at once (e.g. during a status
+        // broadcast) each failed send would otherwise close the next one recursively
+        if (buffers != null) {
+            System.out.println("✗ WebSocket client not keeping up, closing connection" + (userId != null ? ": " + userId : ""));
+        }
+        open = false;
+        loop.execute(this::close);
+        return false;
+    }
+
+    /**
+     * Write queued bytes; called on the event loop thread when the channel can take more
+     */
+    void onWritable() throws IOException {
+        boolean flushedForClose;
+        synchronized (outboundLock) {
+            while (outbound != null && !outbound.isEmpty()) {
+                ByteBuffer buffer = outbound.peek();
+                int before = buffer.remaining();
+                channel.write(buffer);
+                outboundBytes -= before - buffer.remaining();
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                outbound.poll();
+            }
+            outbound = null;
+            setInterest(SelectionKey.OP_WRITE, false);
+            flushedForClose = closeWhenFlushed;
+        }
+        if (flushedForClose) {
+            close();
+        }
+    }
+
+    // Close after what was already sent; upgraded clients are sent a close frame first
+    void closeWithStatus(int code, String reason) {
+        if (framed && closeFrameSent.compareAndSet(false, true)) {
+            write(WebSocketFrameEncoder.close(code, reason));
+        }
+        closeWhenFlushed();
+    }
+
+    // Close once everything already sent has been written
+    void closeWhenFlushed() {
+        synchronized (outboundLock) {
+            if (outbound != null && !outbound.isEmpty()) {
+                closeWhenFlushed = true;
+                return;
+            }
+        }
+        close();
+    }
+
     /**
      * Send error message to client
      */
@@ -260,26 +655,68 @@ public class WebSocketConnection {
      * Close the connection
      */
     public void close() {
-        connected = false;
-        manager.removeConnection(userId);
-        
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        open = false;
+        if (userId != null) {
+            manager.removeConnection(userId);
+        }
+
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            channel.close();
         } catch (IOException e) {
             System.out.println("✗ Error closing connection: " + e.getMessage());
         }
+        synchronized (outboundLock) {
+            outbound = null;
+            outboundBytes = 0;
+        }
+        if (deflate != null) {
+            deflate.end();
+        }
+        loop.connectionClosed();
     }
-    
+
     /**
      * Check if connection is still active
      */
     public boolean isConnected() {
-        return connected && socket != null && !socket.isClosed();
+        return open && !closed.get();
     }
-    
+
     public String getUserId() {
         return userId;
     }
+
+    // Add or remove interest in a readiness event, from any thread
+    private void setInterest(int op, boolean enabled) {
+        Runnable update = () -> {
+            if (key != null && key.isValid()) {
+                key.interestOps(enabled ? key.interestOps() | op : key.interestOps() & ~op);
+            }
+        };
+        if (loop.inLoop()) {
+            update.run();
+        } else {
+            loop.execute(update);
+        }
+    }
+
+    private static long remaining(ByteBuffer[] buffers) {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private static int indexOf(ByteBuffer data, byte value) {
+        for (int i = data.position(); i < data.limit(); i++) {
+            if (data.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
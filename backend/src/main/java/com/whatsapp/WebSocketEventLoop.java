@@ -0,0 +1,193 @@
+package com.whatsapp;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One selector thread owning a share of the WebSocket channels.
+ * Every channel is registered with exactly one loop, which performs all of
+ * its reads and the writes that could not complete on the sending thread.
+ * Bytes are read into one buffer shared by the loop's channels, so an idle
+ * connection holds no read buffer of its own.
+ */
+public class WebSocketEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile Thread thread;
+
+    // Accepted channels are handed to this callback, which picks their loop
+    public interface AcceptHandler {
+        void accepted(SocketChannel channel);
+    }
+
+    private AcceptHandler acceptHandler;
+
+    public WebSocketEventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    public void start() {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Accept connections on serverChannel from this loop
+    public void listen(ServerSocketChannel serverChannel, AcceptHandler handler) {
+        this.acceptHandler = handler;
+        execute(() -> {
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                System.out.println("✗ WebSocket server channel closed before listening: " + e.getMessage());
+            }
+        });
+    }
+
+    // Take ownership of a connection's channel and start reading from it
+    public void register(WebSocketConnection connection) {
+        connections.incrementAndGet();
+        execute(() -> {
+            try {
+                connection.attach(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    // Run task on the loop thread
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Called once by each registered connection as it closes
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (running) {
+            try {
+                // Tasks queued from this thread do not wake the selector, so never block on them
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key);
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    System.out.println("✗ WebSocket event loop error: " + e.getMessage());
+                }
+            }
+        }
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.out.println("✗ WebSocket event loop task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            return;
+        }
+
+        WebSocketConnection connection = (WebSocketConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            connection.close();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                acceptHandler.accepted(channel);
+            }
+        } catch (IOException e) {
+            System.out.println("✗ Error accepting client connection: " + e.getMessage());
+        }
+    }
+
+    private void read(WebSocketConnection connection) throws IOException {
+        readBuffer.clear();
+        int read = connection.getChannel().read(readBuffer);
+        if (read < 0) {
+            connection.close();
+            return;
+        }
+        readBuffer.flip();
+        connection.onBytes(readBuffer);
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof WebSocketConnection) {
+                ((WebSocketConnection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.out.println("✗ Error closing WebSocket selector: " + e.getMessage());
+        }
+    }
+}
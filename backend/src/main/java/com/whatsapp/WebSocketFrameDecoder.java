@@ -0,0 +1,294 @@
+package com.whatsapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental RFC 6455 frame decoder for one connection.
+ * Bytes are fed in as they arrive; client frames are unmasked in place and
+ * handed to the Listener as ByteBuffer views, so a frame that arrives whole
+ * is never copied. Only a partial frame, or the fragments of a message still
+ * being received, are kept between calls.
+ *
+ * Protocol violations are reported once through onProtocolError with the
+ * close code to send, after which the decoder ignores further input.
+ */
+public class WebSocketFrameDecoder {
+    public static final int OP_CONTINUATION = 0x0;
+    public static final int OP_TEXT = 0x1;
+    public static final int OP_BINARY = 0x2;
+    public static final int OP_CLOSE = 0x8;
+    public static final int OP_PING = 0x9;
+    public static final int OP_PONG = 0xA;
+
+    public static final int CLOSE_NORMAL = 1000;
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+    public static final int CLOSE_UNSUPPORTED_DATA = 1003;
+    public static final int CLOSE_NO_STATUS = 1005;
+    public static final int CLOSE_INVALID_PAYLOAD = 1007;
+    public static final int CLOSE_POLICY_VIOLATION = 1008;
+    public static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+    public static final int CLOSE_INTERNAL_ERROR = 1011;
+
+    private static final int MAX_HEADER_BYTES = 14;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    /**
+     * Receives decoded frames. Payload buffers are only valid during the call.
+     */
+    public interface Listener {
+        // A complete data message; compressed is the RSV1 bit of its first frame
+        void onMessage(boolean text, boolean compressed, ByteBuffer payload);
+
+        void onPing(ByteBuffer payload);
+
+        void onPong(ByteBuffer payload);
+
+        // code is CLOSE_NO_STATUS when the peer sent none
+        void onClose(int code, ByteBuffer reason);
+
+        void onProtocolError(int closeCode, String reason);
+    }
+
+    private final int maxMessageBytes;
+    private volatile boolean rsv1Allowed;
+    // Set after a close frame or protocol error; later input is ignored
+    private boolean done;
+
+    // Bytes of a frame that has not fully arrived yet
+    private ByteBuffer partialFrame;
+
+    // The message being reassembled from fragments
+    private ByteBuffer fragments;
+    private boolean fragmenting;
+    private boolean fragmentedText;
+    private boolean fragmentedCompressed;
+
+    public WebSocketFrameDecoder(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    // Accept RSV1 on the first frame of a message, as negotiated by permessage-deflate
+    public void allowRsv1(boolean allowed) {
+        this.rsv1Allowed = allowed;
+    }
+
+    /**
+     * Decode every complete frame in data, keeping any trailing partial frame
+     */
+    public void decode(ByteBuffer data, Listener listener) {
+        // Complete a buffered partial frame first, copying only the bytes it still needs
+        while (partialFrame != null && data.hasRemaining() && !done) {
+            partialFrame.flip();
+            long needed = frameLength(partialFrame);
+            int buffered = partialFrame.remaining();
+            partialFrame.compact();
+            long missing = needed < 0 ? MAX_HEADER_BYTES - buffered : needed - buffered;
+            partialFrame = append(partialFrame, data, (int) Math.min(missing, data.remaining()));
+
+            partialFrame.flip();
+            decodeFrames(partialFrame, listener);
+            if (partialFrame == null || partialFrame.hasRemaining()) {
+                if (partialFrame != null) {
+                    partialFrame.compact();
+                }
+                continue;
+            }
+            partialFrame = null;
+        }
+        if (done) {
+            data.position(data.limit());
+            return;
+        }
+        if (partialFrame == null) {
+            decodeFrames(data, listener);
+            if (done) {
+                data.position(data.limit());
+            } else if (data.hasRemaining()) {
+                partialFrame = append(null, data, data.remaining());
+            }
+        }
+    }
+
+    // Decode complete frames from buffer, leaving its position at the first incomplete one
+    private void decodeFrames(ByteBuffer buffer, Listener listener) {
+        while (!done) {
+            long length = frameLength(buffer);
+            if (length < 0 || buffer.remaining() < length) {
+                if (length > MAX_HEADER_BYTES + (long) maxMessageBytes) {
+                    fail(listener, CLOSE_MESSAGE_TOO_BIG, "Frame too large");
+                }
+                return;
+            }
+            decodeFrame(buffer, listener);
+        }
+    }
+
+    // Total frame length if the header is complete, otherwise -1
+    private static long frameLength(ByteBuffer buffer) {
+        int start = buffer.position();
+        int available = buffer.remaining();
+        if (available < 2) {
+            return -1;
+        }
+        int b1 = buffer.get(start + 1) & 0xFF;
+        int maskBytes = (b1 & 0x80) != 0 ? 4 : 0;
+        int length7 = b1 & 0x7F;
+        if (length7 < 126) {
+            return 2 + maskBytes + length7;
+        }
+        int extended = length7 == 126 ? 2 : 8;
+        if (available < 2 + extended) {
+            return -1;
+        }
+        long payloadLength = length7 == 126
+                ? buffer.getShort(start + 2) & 0xFFFF
+                : buffer.getLong(start + 2);
+        if (payloadLength < 0) {
+            return Long.MAX_VALUE;
+        }
+        return 2 + extended + maskBytes + payloadLength;
+    }
+
+    private void decodeFrame(ByteBuffer buffer, Listener listener) {
+        int start = buffer.position();
+        int b0 = buffer.get(start) & 0xFF;
+        int b1 = buffer.get(start + 1) & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        boolean rsv1 = (b0 & 0x40) != 0;
+        int opcode = b0 & 0x0F;
+        boolean masked = (b1 & 0x80) != 0;
+        int length7 = b1 & 0x7F;
+        int headerLength = 2 + (length7 == 126 ? 2 : length7 == 127 ? 8 : 0);
+        long payloadLength = length7 < 126 ? length7
+                : length7 == 126 ? buffer.getShort(start + 2) & 0xFFFF : buffer.getLong(start + 2);
+
+        boolean control = (opcode & 0x08) != 0;
+        if ((b0 & 0x30) != 0 || (rsv1 && (!rsv1Allowed || control || opcode == OP_CONTINUATION))) {
+            fail(listener, CLOSE_PROTOCOL_ERROR, "Reserved bits set");
+            return;
+        }
+        if (!masked) {
+            fail(listener, CLOSE_PROTOCOL_ERROR, "Client frames must be masked");
+            return;
+        }
+        if (control && (!fin || payloadLength > MAX_CONTROL_PAYLOAD)) {
+            fail(listener, CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+            return;
+        }
+        if (!control && opcode != OP_CONTINUATION && opcode != OP_TEXT && opcode != OP_BINARY
+                || control && opcode != OP_CLOSE && opcode != OP_PING && opcode != OP_PONG) {
+            fail(listener, CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+            return;
+        }
+        if (opcode == OP_CONTINUATION ? !fragmenting : !control && fragmenting) {
+            fail(listener, CLOSE_PROTOCOL_ERROR, "Unexpected " + (fragmenting ? "data" : "continuation") + " frame");
+            return;
+        }
+        long messageLength = payloadLength + (opcode == OP_CONTINUATION && fragments != null ? fragments.position() : 0);
+        if (messageLength > maxMessageBytes) {
+            fail(listener, CLOSE_MESSAGE_TOO_BIG, "Message too large");
+            return;
+        }
+
+        int maskOffset = start + headerLength;
+        int payloadStart = maskOffset + 4;
+        int payloadEnd = payloadStart + (int) payloadLength;
+        unmask(buffer, buffer.getInt(maskOffset), payloadStart, payloadEnd);
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(payloadEnd).position(payloadStart);
+        buffer.position(payloadEnd);
+
+        if (control) {
+            handleControl(opcode, payload, listener);
+        } else if (opcode != OP_CONTINUATION && fin) {
+            listener.onMessage(opcode == OP_TEXT, rsv1, payload);
+        } else {
+            if (opcode != OP_CONTINUATION) {
+                fragmenting = true;
+                fragmentedText = opcode == OP_TEXT;
+                fragmentedCompressed = rsv1;
+            }
+            fragments = append(fragments, payload, payload.remaining());
+            if (fin) {
+                ByteBuffer message = fragments;
+                message.flip();
+                fragments = null;
+                fragmenting = false;
+                listener.onMessage(fragmentedText, fragmentedCompressed, message);
+            }
+        }
+    }
+
+    private void handleControl(int opcode, ByteBuffer payload, Listener listener) {
+        switch (opcode) {
+            case OP_PING:
+                listener.onPing(payload);
+                break;
+            case OP_PONG:
+                listener.onPong(payload);
+                break;
+            default:
+                if (payload.remaining() == 1) {
+                    fail(listener, CLOSE_PROTOCOL_ERROR, "Invalid close payload");
+                    return;
+                }
+                int code = CLOSE_NO_STATUS;
+                if (payload.remaining() >= 2) {
+                    code = payload.getShort() & 0xFFFF;
+                    if (!isValidCloseCode(code)) {
+                        fail(listener, CLOSE_PROTOCOL_ERROR, "Invalid close code " + code);
+                        return;
+                    }
+                }
+                done = true;
+                listener.onClose(code, payload);
+        }
+    }
+
+    // Codes a peer may send in a close frame (RFC 6455 section 7.4)
+    private static boolean isValidCloseCode(int code) {
+        return (code >= 1000 && code <= 1003) || (code >= 1007 && code <= 1011) || (code >= 3000 && code <= 4999);
+    }
+
+    // XOR the payload with the 4-byte mask, eight bytes at a time where possible
+    private static void unmask(ByteBuffer buffer, int mask, int from, int to) {
+        if (mask == 0) {
+            return;
+        }
+        long wideMask = ((long) mask << 32) | (mask & 0xFFFFFFFFL);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            buffer.putLong(i, buffer.getLong(i) ^ wideMask);
+        }
+        for (; i < to; i++) {
+            int shift = 24 - ((i - from) & 3) * 8;
+            buffer.put(i, (byte) (buffer.get(i) ^ (mask >>> shift)));
+        }
+    }
+
+    private void fail(Listener listener, int closeCode, String reason) {
+        done = true;
+        fragments = null;
+        partialFrame = null;
+        listener.onProtocolError(closeCode, reason);
+    }
+
+    // Copy length bytes from data onto the end of buffer, growing it as needed
+    static ByteBuffer append(ByteBuffer buffer, ByteBuffer data, int length) {
+        if (buffer == null || buffer.remaining() < length) {
+            int used = buffer == null ? 0 : buffer.position();
+            int capacity = Math.max(used + length, buffer == null ? 256 : buffer.capacity() * 2);
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            if (buffer != null) {
+                buffer.flip();
+                grown.put(buffer);
+            }
+            buffer = grown;
+        }
+        ByteBuffer slice = data.duplicate();
+        slice.limit(data.position() + length);
+        buffer.put(slice);
+        data.position(data.position() + length);
+        return buffer;
+    }
+}
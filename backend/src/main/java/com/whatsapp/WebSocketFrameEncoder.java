@@ -0,0 +1,63 @@
+package com.whatsapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds RFC 6455 server frames. Server frames are never masked, so a data
+ * frame is just a header written in front of the payload; the two are
+ * returned as separate buffers for a gathering write instead of being
+ * copied into one.
+ */
+public final class WebSocketFrameEncoder {
+    private WebSocketFrameEncoder() {
+    }
+
+    /**
+     * Header for a single frame carrying payloadLength bytes
+     */
+    public static ByteBuffer header(int opcode, boolean fin, boolean rsv1, int payloadLength) {
+        ByteBuffer header = ByteBuffer.allocate(payloadLength < 126 ? 2 : payloadLength <= 0xFFFF ? 4 : 10);
+        header.put((byte) ((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | opcode));
+        if (payloadLength < 126) {
+            header.put((byte) payloadLength);
+        } else if (payloadLength <= 0xFFFF) {
+            header.put((byte) 126);
+            header.putShort((short) payloadLength);
+        } else {
+            header.put((byte) 127);
+            header.putLong(payloadLength);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * An unfragmented frame: header and payload, ready for a gathering write
+     */
+    public static ByteBuffer[] frame(int opcode, boolean rsv1, ByteBuffer payload) {
+        return new ByteBuffer[] {header(opcode, true, rsv1, payload.remaining()), payload};
+    }
+
+    /**
+     * A control frame in one buffer; the payload is copied since it is at most 125 bytes
+     */
+    public static ByteBuffer control(int opcode, ByteBuffer payload) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + payload.remaining());
+        frame.put((byte) (0x80 | opcode));
+        frame.put((byte) payload.remaining());
+        frame.put(payload.duplicate());
+        frame.flip();
+        return frame;
+    }
+
+    public static ByteBuffer close(int code, String reason) {
+        byte[] reasonBytes = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        int reasonLength = Math.min(reasonBytes.length, 123);
+        ByteBuffer payload = ByteBuffer.allocate(2 + reasonLength);
+        payload.putShort((short) code);
+        payload.put(reasonBytes, 0, reasonLength);
+        payload.flip();
+        return control(WebSocketFrameDecoder.OP_CLOSE, payload);
+    }
+}
@@ -102,6 +102,13 @@ public class WebSocketManager {
             return;
         }
         
+        broadcastToGroupMembers(groupId, members, messageContent, senderId);
+    }
+    
+    /**
+     * Broadcast message to every online user in a group's member set
+     */
+    public void broadcastToGroupMembers(String groupId, Collection<String> members, String messageContent, String senderId) {
         JSONObject messageJson = new JSONObject();
         messageJson.put("type", "group_message");
         messageJson.put("groupId", groupId);
@@ -1,19 +1,38 @@
 package com.whatsapp;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONObject;
 
 /**
  * WebSocket Server handles real-time messaging connections
  * Runs on a separate port (8081) from the REST API
+ *
+ * A few event-loop threads (WS_EVENT_LOOPS) own the non-blocking channels;
+ * decoded messages are handled on a worker pool (WS_WORKER_THREADS, or a
+ * virtual thread per task in virtual thread mode), one message at a time per
+ * connection. No thread is tied to a connection, so idle connections cost
+ * only their channel and a small connection object.
  */
 public class WebSocketServer implements Runnable {
     private static final int PORT = getEnvPort("WS_PORT", 8081);
-    private ServerSocket serverSocket;
-    
+    private static final int EVENT_LOOPS = getEnvCount("WS_EVENT_LOOPS",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int WORKER_THREADS = getEnvCount("WS_WORKER_THREADS",
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private static final int ACCEPT_BACKLOG = 4096;
+    private static final int MAX_HANDSHAKE_LINES = 100;
+    private ServerSocketChannel serverChannel;
+    private final List<WebSocketEventLoop> eventLoops = new ArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ExecutorService workers;
+
     private static int getEnvPort(String envName, int defaultPort) {
         String portStr = System.getenv(envName);
         if (portStr != null && !portStr.isEmpty()) {
@@ -25,14 +44,19 @@ public class WebSocketServer implements Runnable {
         }
         return defaultPort;
     }
+
+    private static int getEnvCount(String envName, int defaultCount) {
+        int count = getEnvPort(envName, defaultCount);
+        return count > 0 ? count : defaultCount;
+    }
     private WebSocketManager manager;
     private UserRepository userRepository;
     private MessageRepository messageRepository;
     private GroupRepository groupRepository;
     private ChatRepository chatRepository;
-    private boolean running = false;
-    
-    public WebSocketServer(WebSocketManager manager, UserRepository userRepository, 
+    private volatile boolean running = false;
+
+    public WebSocketServer(WebSocketManager manager, UserRepository userRepository,
                            MessageRepository messageRepository, GroupRepository groupRepository,
                            ChatRepository chatRepository) {
         this.manager = manager;
@@ -41,158 +65,136 @@ public class WebSocketServer implements Runnable {
         this.groupRepository = groupRepository;
         this.chatRepository = chatRepository;
     }
-    
+
+    /**
+     * Open the listening channel and run the first event loop on this thread
+     */
     @Override
     public void run() {
         try {
-            serverSocket = new ServerSocket(PORT);
-            running = true;
-            System.out.println("✓ WebSocket Server started on ws://localhost:" + PORT);
-            
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    new Thread(() -> handleClient(clientSocket)).start();
-                } catch (IOException e) {
-                    if (running) {
-                        System.out.println("✗ Error accepting client connection: " + e.getMessage());
-                    }
-                }
+            workers = ThreadingMode.newExecutor("websocket-worker", WORKER_THREADS);
+            for (int i = 0; i < EVENT_LOOPS; i++) {
+                eventLoops.add(new WebSocketEventLoop("websocket-loop-" + (i + 1)));
             }
+
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(PORT), ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            eventLoops.get(0).listen(serverChannel, this::accepted);
+            for (int i = 1; i < eventLoops.size(); i++) {
+                eventLoops.get(i).start();
+            }
+            running = true;
+            System.out.println("✓ WebSocket Server started on ws://localhost:" + PORT
+                    + " (" + EVENT_LOOPS + " event loops, "
+                    + (ThreadingMode.isVirtual() ? "virtual thread" : String.valueOf(WORKER_THREADS)) + " workers)");
+
+            eventLoops.get(0).run();
         } catch (IOException e) {
             System.out.println("✗ Error starting WebSocket Server: " + e.getMessage());
         }
     }
-    
+
+    // Spread accepted channels over the event loops round-robin
+    private void accepted(SocketChannel channel) {
+        WebSocketEventLoop loop = eventLoops.get(Math.floorMod(nextLoop.getAndIncrement(), eventLoops.size()));
+        WebSocketConnection connection = new WebSocketConnection(channel, loop, workers, this, manager,
+                userRepository, messageRepository, groupRepository, chatRepository);
+        loop.register(connection);
+    }
+
     /**
-     * Handle incoming client connection
+     * Handle one line received before the connection is open: either the
+     * legacy raw JSON greeting, or one line of an HTTP request
      */
-    private void handleClient(Socket clientSocket) {
-        try {
-            BufferedInputStream bis = new BufferedInputStream(clientSocket.getInputStream());
-            BufferedReader in = new BufferedReader(new InputStreamReader(bis));
-            
-            // Read first line to check if it's HTTP or WebSocket
-            in.mark(1024);
-            String firstLine = in.readLine();
-            if (firstLine == null) {
-                clientSocket.close();
-                return;
-            }
-            
-            // Handle HTTP health checks (HEAD, GET for /health, etc)
-            if (firstLine.startsWith("HEAD") || firstLine.startsWith("GET")) {
-                handleHealthCheck(clientSocket, in, firstLine);
-            } 
-            // Handle WebSocket upgrade (GET with Upgrade header)
-            else if (firstLine.startsWith("GET")) {
-                in.reset();
-                handleWebSocketUpgrade(clientSocket, in);
-            } 
+    void handleHandshakeLine(WebSocketConnection connection, String line) {
+        List<String> request = connection.getHandshakeLines();
+        if (request.isEmpty()) {
             // Handle raw JSON (legacy support)
-            else if (firstLine.startsWith("{")) {
+            if (line.startsWith("{")) {
                 try {
-                    JSONObject json = new JSONObject(firstLine);
-                    String userId = json.getString("userId");
-                    handleWebSocketConnection(clientSocket, userId);
+                    JSONObject json = new JSONObject(line);
+                    handleWebSocketConnection(connection, json.getString("userId"));
                 } catch (Exception e) {
                     System.out.println("✗ Invalid JSON from client: " + e.getMessage());
-                    clientSocket.close();
+                    connection.close();
                 }
-            } 
+                return;
+            }
             // Unknown format
-            else {
-                clientSocket.close();
+            if (!line.startsWith("GET") && !line.startsWith("HEAD")) {
+                connection.close();
+                return;
             }
-        } catch (IOException e) {
-            System.out.println("✗ Error handling client: " + e.getMessage());
-            try {
-                clientSocket.close();
-            } catch (IOException ex) {
-                // ignore
+        }
+
+        if (!line.trim().isEmpty()) {
+            if (request.size() >= MAX_HANDSHAKE_LINES) {
+                connection.close();
+                return;
             }
+            request.add(line);
+            return;
         }
+
+        // Blank line: the request is complete
+        String upgrade = getHeader(request, "upgrade");
+        if (request.get(0).startsWith("GET") && "websocket".equalsIgnoreCase(upgrade)) {
+            handleWebSocketUpgrade(connection, request);
+        } else {
+            handleHealthCheck(connection);
+        }
+        request.clear();
     }
-    
+
     /**
      * Handle HTTP health check requests from Render
      */
-    private void handleHealthCheck(Socket clientSocket, BufferedReader in, String firstLine) throws IOException {
-        // Read and discard headers
-        String line;
-        while ((line = in.readLine()) != null && !line.trim().isEmpty()) {
-            // discard
-        }
-        
-        try {
-            // Send HTTP 200 response
-            OutputStream out = clientSocket.getOutputStream();
-            String response = "HTTP/1.1 200 OK\r\n" +
-                            "Content-Type: text/plain\r\n" +
-                            "Content-Length: 2\r\n" +
-                            "Connection: close\r\n" +
-                            "\r\n" +
-                            "OK";
-            out.write(response.getBytes());
-            out.flush();
-        } catch (IOException e) {
-            System.out.println("✗ Error sending health check response: " + e.getMessage());
-        } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                // ignore
-            }
-        }
+    private void handleHealthCheck(WebSocketConnection connection) {
+        // Send HTTP 200 response
+        String response = "HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: text/plain\r\n" +
+                        "Content-Length: 2\r\n" +
+                        "Connection: close\r\n" +
+                        "\r\n" +
+                        "OK";
+        connection.sendRaw(response.getBytes(StandardCharsets.US_ASCII));
+        connection.closeWhenFlushed();
     }
-    
+
     /**
      * Handle WebSocket HTTP upgrade
      */
-    private void handleWebSocketUpgrade(Socket clientSocket, BufferedReader in) throws IOException {
-        String line;
-        String secWebSocketKey = null;
-        
-        // Read all headers until empty line
-        while ((line = in.readLine()) != null && !line.trim().isEmpty()) {
-            String lowerLine = line.toLowerCase();
-            if (lowerLine.startsWith("sec-websocket-key:")) {
-                secWebSocketKey = line.substring("sec-websocket-key:".length()).trim();
-            }
-        }
-        
+    private void handleWebSocketUpgrade(WebSocketConnection connection, List<String> request) {
+        String secWebSocketKey = getHeader(request, "sec-websocket-key");
         if (secWebSocketKey == null || secWebSocketKey.isEmpty()) {
             System.out.println("✗ No Sec-WebSocket-Key in request");
-            clientSocket.close();
+            connection.close();
             return;
         }
-        
-        try {
-            // Send WebSocket handshake response
-            String acceptKey = generateWebSocketAcceptKey(secWebSocketKey);
-            OutputStream out = clientSocket.getOutputStream();
-            String response = "HTTP/1.1 101 Switching Protocols\r\n" +
-                            "Upgrade: websocket\r\n" +
-                            "Connection: Upgrade\r\n" +
-                            "Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
-                            "\r\n";
-            out.write(response.getBytes());
-            out.flush();
-            
-            // Connection is now in WebSocket mode
-            // Use "guest" as default userId - the client can set it later
-            handleWebSocketConnection(clientSocket, "guest_" + System.currentTimeMillis());
-            
-        } catch (Exception e) {
-            System.out.println("✗ Error during WebSocket handshake: " + e.getMessage());
-            try {
-                clientSocket.close();
-            } catch (IOException ex) {
-                // ignore
-            }
+
+        // Accept permessage-deflate if the client offers a form of it we support
+        PerMessageDeflate deflate = PerMessageDeflate.negotiate(getHeader(request, "sec-websocket-extensions"));
+        if (deflate != null) {
+            connection.enableCompression(deflate);
         }
+
+        // Send WebSocket handshake response
+        String acceptKey = generateWebSocketAcceptKey(secWebSocketKey);
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
+                        (deflate != null ? "Sec-WebSocket-Extensions: " + deflate.responseHeader() + "\r\n" : "") +
+                        "\r\n";
+        connection.sendRaw(response.getBytes(StandardCharsets.US_ASCII));
+
+        // Connection is now in WebSocket mode and speaks frames; the user comes from ?userId=,
+        // otherwise "guest" is used as default userId
+        String userId = getQueryParameter(request.get(0), "userId");
+        handleWebSocketConnection(connection, userId != null ? userId : "guest_" + System.currentTimeMillis());
     }
-    
+
     /**
      * Generate WebSocket accept key
      */
@@ -207,82 +209,95 @@ public class WebSocketServer implements Runnable {
             return "";
         }
     }
-    
-    /**
-     * Read a WebSocket frame (RFC 6455) - SIMPLIFIED
-     */
-    private String readWebSocketFrame(BufferedInputStream in) throws IOException {
-        try {
-            // Skip WebSocket frame parsing - just try to read a line
-            BufferedReader br = new BufferedReader(new InputStreamReader(in));
-            String line = br.readLine();
-            return line;
-        } catch (Exception e) {
+
+    private static String getHeader(List<String> request, String name) {
+        for (int i = 1; i < request.size(); i++) {
+            String line = request.get(i);
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String getQueryParameter(String requestLine, String name) {
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || parts[1].indexOf('?') < 0) {
             return null;
         }
+        for (String pair : parts[1].substring(parts[1].indexOf('?') + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return java.net.URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
     }
-    
+
     /**
      * Handle established WebSocket connection
      */
-    private void handleWebSocketConnection(Socket clientSocket, String userId) {
+    private void handleWebSocketConnection(WebSocketConnection connection, String userId) {
         try {
             // Verify user exists
             User user = userRepository.getUserById(userId);
             if (user == null) {
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
                 JSONObject error = new JSONObject();
                 error.put("type", "error");
                 error.put("message", "User not found");
-                out.println(error.toString());
-                out.close();
-                clientSocket.close();
+                connection.sendText(error.toString());
+                connection.closeWithStatus(WebSocketFrameDecoder.CLOSE_POLICY_VIOLATION, "User not found");
                 return;
             }
-            
-            // Create WebSocket connection
-            WebSocketConnection connection = new WebSocketConnection(clientSocket, userId, manager, 
-                                                                     userRepository, messageRepository, 
-                                                                     groupRepository, chatRepository);
-            
+
             // Register connection
+            connection.open(userId);
             manager.registerConnection(userId, connection);
-            
+
             // Send welcome message
             JSONObject welcome = new JSONObject();
             welcome.put("type", "connected");
             welcome.put("userId", userId);
             welcome.put("message", "Connected to WebSocket server");
             connection.send(welcome.toString());
-            
-            // Start listening for messages
-            connection.startListening();
-            
+
         } catch (Exception e) {
             System.out.println("✗ Error handling client: " + e.getMessage());
-            try {
-                clientSocket.close();
-            } catch (IOException ex) {
-                System.out.println("✗ Error closing client socket: " + ex.getMessage());
-            }
+            connection.close();
         }
     }
-    
+
     /**
      * Stop the WebSocket server
      */
     public void stop() {
         running = false;
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
             }
         } catch (IOException e) {
             System.out.println("✗ Error stopping WebSocket Server: " + e.getMessage());
         }
+        for (WebSocketEventLoop loop : eventLoops) {
+            loop.stop();
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
     }
-    
+
     public boolean isRunning() {
         return running;
     }
+
+    // Channels currently owned by the event loops, including ones still handshaking
+    public int getOpenChannelCount() {
+        int count = 0;
+        for (WebSocketEventLoop loop : eventLoops) {
+            count += loop.getConnectionCount();
+        }
+        return count;
+    }
 }
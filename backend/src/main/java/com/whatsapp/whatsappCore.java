@@ -13,24 +13,24 @@ public class whatsappCore {
     private static ChatRepository chatRepository;
     private static GroupRepository groupRepository;
     private static MessageRepository messageRepository;
+    private static StorageEngine storageEngine;
 
     public static void main(String[] args) {
         System.out.println("\n");
         System.out.println("Welcome to WhatsApp Core LLD!");
-        System.out.println("Initializing MongoDB Connection...");
+        System.out.println("Initializing storage engine...");
         System.out.println("\n");
 
         // Initialize database repositories
         try {
-            DatabaseConnection.getInstance();
-            userRepository = new UserRepository();
-            chatRepository = new ChatRepository();
-            groupRepository = new GroupRepository();
-            messageRepository = new MessageRepository();
+            storageEngine = StorageEngine.fromEnvironment();
+            userRepository = storageEngine.getUserRepository();
+            messageRepository = storageEngine.getMessageRepository();
+            chatRepository = storageEngine.getChatRepository();
+            groupRepository = storageEngine.getGroupRepository();
             
-            // Load users from database
-            registeredUsers.addAll(userRepository.getAllUsers());
-            System.out.println("✓ Loaded " + registeredUsers.size() + " users from database\n");
+            // Users are looked up by phone number on demand instead of preloaded
+            System.out.println("✓ Database repositories ready\n");
         } catch (Exception e) {
             System.out.println("✗ Failed to initialize database: " + e.getMessage());
             System.out.println("Proceeding without database persistence.\n");
@@ -68,7 +68,9 @@ public class whatsappCore {
                         break;
                     case 7:
                         System.out.println("\n👋 Exiting WhatsApp Core. Goodbye!\n");
-                        DatabaseConnection.getInstance().close();
+                        if (storageEngine != null) {
+                            storageEngine.close();
+                        }
                         System.exit(0);
                         break;
                     default:
@@ -108,6 +110,19 @@ public class whatsappCore {
     }
 
     private static void loginUser(Scanner sc) {
+        if (userRepository != null) {
+            System.out.print("\nEnter your phone number: ");
+            String phoneNumber = sc.nextLine();
+            User user = userRepository.findByPhoneNumber(phoneNumber);
+            if (user != null) {
+                currentUser = user;
+                System.out.println("\n✅ Logged in as " + currentUser.getProfilename() + "\n");
+            } else {
+                System.out.println("\nNo user registered with that phone number.\n");
+            }
+            return;
+        }
+
         if (registeredUsers.isEmpty()) {
             System.out.println("\nNo users registered yet. Please register first.\n");
             return;
@@ -229,6 +244,21 @@ public class whatsappCore {
     }
 
     private static void addFriendByPhoneOrName(Scanner sc) {
+        if (userRepository != null) {
+            System.out.print("\nEnter friend's phone number: ");
+            String phoneNumber = sc.nextLine();
+            User friend = userRepository.findByPhoneNumber(phoneNumber);
+            if (friend == null) {
+                System.out.println("No user registered with that phone number!\n");
+            } else if (currentUser.addFriend(friend.getUserId())) {
+                userRepository.updateUser(currentUser);
+                System.out.println("\n✅ " + friend.getProfilename() + " added as friend!\n");
+            } else {
+                System.out.println("Already a friend!\n");
+            }
+            return;
+        }
+
         System.out.println("\n");
         System.out.println("Available Users to Add as Friend:");
         System.out.println("\n");
@@ -286,17 +316,28 @@ public class whatsappCore {
         System.out.println("\n");
         System.out.println("         Your Friends");
         System.out.println("\n");
-        for (String friendId : friendIds) {
+        for (User user : findUsers(friendIds)) {
+            System.out.println("👤 Name: " + user.getProfilename());
+            System.out.println("📱 Phone: " + user.getPhoneNumber());
+            System.out.println("🆔 ID: " + user.getUserId());
+            System.out.println("\n");
+        }
+        System.out.println();
+    }
+
+    private static List<User> findUsers(List<String> userIds) {
+        if (userRepository != null) {
+            return userRepository.getUsersByIds(userIds);
+        }
+        List<User> users = new ArrayList<>();
+        for (String userId : userIds) {
             for (User user : registeredUsers) {
-                if (user.getUserId().equals(friendId)) {
-                    System.out.println("👤 Name: " + user.getProfilename());
-                    System.out.println("📱 Phone: " + user.getPhoneNumber());
-                    System.out.println("🆔 ID: " + user.getUserId());
-                    System.out.println("\n");
+                if (user.getUserId().equals(userId)) {
+                    users.add(user);
                 }
             }
         }
-        System.out.println();
+        return users;
     }
 
     private static void manageChats(Scanner sc) {
@@ -0,0 +1,36 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class CachingGroupRepositoryTest {
+    private static final int MAX_SIZE = 10;
+
+    @Test
+    void fullCacheEvictsOnlyTheOldestEntries() throws InterruptedException {
+        InMemoryGroupRepository groups = new InMemoryGroupRepository(new InMemoryMessageRepository());
+        CachingGroupRepository cache = new CachingGroupRepository(groups, MAX_SIZE, 1, TimeUnit.HOURS);
+        for (int i = 0; i <= MAX_SIZE; i++) {
+            groups.saveGroup(new Group("GRP-" + i, "Group " + i, "alice"));
+        }
+
+        for (int i = 0; i < MAX_SIZE; i++) {
+            cache.getGroupMembers("GRP-" + i);
+            // Distinct expiry times, so the oldest entry is well defined
+            Thread.sleep(2);
+        }
+        assertEquals(MAX_SIZE, cache.getMissCount());
+
+        // One more group while full: only the oldest entry makes way
+        cache.getGroupMembers("GRP-" + MAX_SIZE);
+        for (int i = 1; i <= MAX_SIZE; i++) {
+            cache.getGroupMembers("GRP-" + i);
+        }
+        assertEquals(MAX_SIZE, cache.getHitCount(), "every entry but the oldest is still cached");
+
+        cache.getGroupMembers("GRP-0");
+        assertEquals(MAX_SIZE + 2, cache.getMissCount());
+    }
+}
@@ -0,0 +1,95 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Sends 10,000 messages through the chat and group repositories and checks
+ * that every send costs the same number of message writes, so the
+ * ten-thousandth message does not write the history again.
+ */
+class ConversationWriteCostTest {
+    private static final int MESSAGES = 10_000;
+
+    @Test
+    void chatAppendWritesOneMessagePerSend() {
+        CountingMessageRepository messages = new CountingMessageRepository();
+        InMemoryChatRepository chats = new InMemoryChatRepository(messages);
+        Chat chat = chats.getOrCreatePrivateChat("alice", "bob");
+
+        for (int i = 1; i <= MESSAGES; i++) {
+            int before = messages.writes.get();
+            assertTrue(chats.appendMessage(chat, new Message("MSG-" + i, "alice", "hello " + i)));
+            assertEquals(1, messages.writes.get() - before, "writes for send " + i);
+        }
+        assertEquals(MESSAGES, messages.getMessagesByConversation(chat.getChatId()).size());
+    }
+
+    @Test
+    void chatUpdateWritesOnlyTheNewMessage() {
+        CountingMessageRepository messages = new CountingMessageRepository();
+        InMemoryChatRepository chats = new InMemoryChatRepository(messages);
+        Chat chat = new Chat("alice", "bob");
+
+        for (int i = 1; i <= MESSAGES; i++) {
+            // The chat object carries its whole history into every update
+            chat.addMessage(new Message("MSG-" + i, "alice", "hello " + i));
+            int before = messages.writes.get();
+            assertTrue(chats.updateChat(chat));
+            assertEquals(1, messages.writes.get() - before, "writes for send " + i);
+        }
+        assertEquals(MESSAGES, messages.getMessagesByConversation(chat.getChatId()).size());
+    }
+
+    @Test
+    void groupAppendWritesOneMessagePerSend() {
+        CountingMessageRepository messages = new CountingMessageRepository();
+        InMemoryGroupRepository groups = new InMemoryGroupRepository(messages);
+        Group group = new Group("Friends", "alice");
+        assertTrue(groups.saveGroup(group));
+
+        for (int i = 1; i <= MESSAGES; i++) {
+            int before = messages.writes.get();
+            assertTrue(groups.appendMessage(group.getGroupId(), new Message("MSG-" + i, "alice", "hello " + i)));
+            assertEquals(1, messages.writes.get() - before, "writes for send " + i);
+        }
+        assertEquals(MESSAGES, messages.getMessagesByConversation(group.getGroupId()).size());
+    }
+
+    @Test
+    void groupUpdateWritesOnlyTheNewMessage() {
+        CountingMessageRepository messages = new CountingMessageRepository();
+        InMemoryGroupRepository groups = new InMemoryGroupRepository(messages);
+        Group group = new Group("Friends", "alice");
+        assertTrue(groups.saveGroup(group));
+
+        for (int i = 1; i <= MESSAGES; i++) {
+            group.addMessage(new Message("MSG-" + i, "alice", "hello " + i));
+            int before = messages.writes.get();
+            assertTrue(groups.updateGroup(group));
+            assertEquals(1, messages.writes.get() - before, "writes for send " + i);
+        }
+        assertEquals(MESSAGES, messages.getMessagesByConversation(group.getGroupId()).size());
+    }
+
+    // Counts every message handed to the store, whether or not it was new
+    private static class CountingMessageRepository extends InMemoryMessageRepository {
+        final AtomicInteger writes = new AtomicInteger();
+
+        @Override
+        public boolean saveMessage(Message message) {
+            writes.incrementAndGet();
+            return super.saveMessage(message);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> saveMessageAsync(Message message) {
+            writes.incrementAndGet();
+            return CompletableFuture.completedFuture(super.saveMessage(message));
+        }
+    }
+}
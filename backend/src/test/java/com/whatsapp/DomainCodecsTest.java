@@ -0,0 +1,167 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round trips through the domain codecs, and documents written before the
+ * codecs existed (missing fields, other number types, extra fields) decoding
+ * the way the old Document mapping read them.
+ */
+class DomainCodecsTest {
+
+    @Test
+    void messageRoundTrip() {
+        Date sent = new Date(1_700_000_000_000L);
+        Message message = new Message("MSG-1", "alice", "hello", sent, "MSG-0", "CHAT-1", 42);
+        Message decoded = roundTrip(Message.class, message);
+
+        assertEquals("MSG-1", decoded.getMessageId());
+        assertEquals("alice", decoded.getSenderId());
+        assertEquals("hello", decoded.getContent());
+        assertEquals(sent, decoded.getTimestamp());
+        assertEquals("MSG-0", decoded.getParentMessageId());
+        assertTrue(decoded.isReply());
+        assertEquals("CHAT-1", decoded.getConversationId());
+        assertEquals(42, decoded.getSequence());
+    }
+
+    @Test
+    void unboundMessageIsWrittenWithoutConversationFields() {
+        BsonDocument encoded = encode(Message.class, new Message("MSG-1", "alice", "hello"));
+        assertFalse(encoded.containsKey("conversationId"));
+        assertFalse(encoded.containsKey("sequence"));
+        assertFalse(decode(Message.class, encoded).isPersisted());
+    }
+
+    @Test
+    void baselineMessageWithoutSequenceDecodes() {
+        // Written before conversations were sequenced: no conversationId or sequence
+        Message decoded = decode(Message.class, new Document("_id", "x")
+                .append("messageId", "MSG-1")
+                .append("senderId", "alice")
+                .append("content", "hi")
+                .append("timestamp", new Date(1000))
+                .append("parentMessageId", null)
+                .append("isReply", false));
+
+        assertEquals("MSG-1", decoded.getMessageId());
+        assertEquals(new Date(1000), decoded.getTimestamp());
+        assertNull(decoded.getParentMessageId());
+        assertNull(decoded.getConversationId());
+        assertEquals(0, decoded.getSequence());
+        assertFalse(decoded.isPersisted());
+    }
+
+    @Test
+    void messageSequenceReadsFromAnyNumberType() {
+        assertEquals(7, decode(Message.class, new Document("messageId", "a")
+                .append("conversationId", "C").append("sequence", 7)).getSequence());
+        assertEquals(7, decode(Message.class, new Document("messageId", "a")
+                .append("conversationId", "C").append("sequence", 7.0)).getSequence());
+    }
+
+    @Test
+    void userRoundTrip() {
+        User decoded = roundTrip(User.class, new User("U1", "Alice", "555", Arrays.asList("U2", "U3")));
+        assertEquals("U1", decoded.getUserId());
+        assertEquals("Alice", decoded.getProfilename());
+        assertEquals("555", decoded.getPhoneNumber());
+        assertEquals(List.of("U2", "U3"), decoded.getFriends());
+    }
+
+    @Test
+    void baselineUserWithoutFriendsDecodes() {
+        User decoded = decode(User.class, new Document("userId", "U1")
+                .append("profilename", "Alice")
+                .append("phoneNumber", "555")
+                .append("lastUpdated", new Date()));
+        assertEquals("U1", decoded.getUserId());
+        assertTrue(decoded.getFriends().isEmpty());
+    }
+
+    @Test
+    void projectedUserDecodesMissingFieldsAsNull() {
+        User decoded = decode(User.class, new Document("userId", "U1"));
+        assertNull(decoded.getProfilename());
+        assertNull(decoded.getPhoneNumber());
+    }
+
+    @Test
+    void chatRoundTrip() {
+        Date created = new Date(5000);
+        Chat decoded = roundTrip(Chat.class, new Chat("CHAT-1", "bob", "alice", created));
+        assertEquals("CHAT-1", decoded.getChatId());
+        assertEquals("bob", decoded.getUserId1());
+        assertEquals("alice", decoded.getUserId2());
+        assertEquals(Chat.pairKey("alice", "bob"), decoded.getPairKey());
+        assertEquals(created, decoded.getCreatedAt());
+    }
+
+    @Test
+    void baselineChatWithMessageIdsAndNoPairKeyDecodes() {
+        Chat decoded = decode(Chat.class, new Document("chatId", "CHAT-1")
+                .append("userId1", "alice")
+                .append("userId2", "bob")
+                .append("messageIds", Arrays.asList("MSG-1", "MSG-2"))
+                .append("createdAt", new Date(5000)));
+        assertEquals("CHAT-1", decoded.getChatId());
+        assertEquals(Chat.pairKey("alice", "bob"), decoded.getPairKey());
+        assertTrue(decoded.getMessages().isEmpty(), "history is not read from the chat document");
+    }
+
+    @Test
+    void groupRoundTrip() {
+        Group group = new Group("Friends", "alice");
+        group.addMember("bob");
+        Group decoded = roundTrip(Group.class, group);
+        assertEquals(group.getGroupId(), decoded.getGroupId());
+        assertEquals("Friends", decoded.getGroupName());
+        assertEquals("alice", decoded.getAdminId());
+        assertEquals(List.of("alice", "bob"), decoded.getMembers());
+    }
+
+    @Test
+    void baselineGroupWithoutMembersDecodes() {
+        Group decoded = decode(Group.class, new Document("groupId", "GRP-1")
+                .append("groupName", "Friends")
+                .append("adminId", "alice")
+                .append("messageIds", Arrays.asList("MSG-1")));
+        assertEquals("GRP-1", decoded.getGroupId());
+        assertTrue(decoded.getMembers().isEmpty());
+    }
+
+    private static <T> T roundTrip(Class<T> type, T value) {
+        return decode(type, encode(type, value));
+    }
+
+    private static <T> BsonDocument encode(Class<T> type, T value) {
+        BsonDocument document = new BsonDocument();
+        DomainCodecs.registry().get(type).encode(new BsonDocumentWriter(document), value,
+                EncoderContext.builder().build());
+        return document;
+    }
+
+    private static <T> T decode(Class<T> type, Document document) {
+        return decode(type, document.toBsonDocument(BsonDocument.class, DomainCodecs.registry()));
+    }
+
+    private static <T> T decode(Class<T> type, BsonDocument document) {
+        Codec<T> codec = DomainCodecs.registry().get(type);
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+}
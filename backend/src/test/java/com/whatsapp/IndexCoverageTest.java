@@ -0,0 +1,119 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import java.util.Arrays;
+import java.util.Date;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Explains every query shape the repositories issue against a real MongoDB
+ * carrying the indexes from DatabaseConnection, and fails on any COLLSCAN.
+ * Set MONGODB_TEST_URI to run it; a throwaway database is created and dropped.
+ */
+class IndexCoverageTest {
+    private static MongoClient client;
+    private static MongoDatabase database;
+
+    @BeforeAll
+    static void connect() {
+        String uri = System.getenv("MONGODB_TEST_URI");
+        assumeTrue(uri != null && !uri.isEmpty(), "MONGODB_TEST_URI not set");
+        client = MongoClients.create(uri);
+        database = client.getDatabase("whatsapp_index_test_" + System.currentTimeMillis());
+
+        // The planner only considers indexes on collections that exist
+        database.getCollection("users").insertOne(new Document("userId", "u1").append("phoneNumber", "1"));
+        database.getCollection("messages").insertOne(new Document("messageId", "m1")
+                .append("conversationId", "c1").append("sequence", 1L)
+                .append("senderId", "u1").append("timestamp", new Date()));
+        database.getCollection("chats").insertOne(new Document("chatId", "c1")
+                .append("userId1", "u1").append("userId2", "u2").append("pairKey", "u1|u2"));
+        database.getCollection("groups").insertOne(new Document("groupId", "g1")
+                .append("members", Arrays.asList("u1", "u2")));
+        database.getCollection(MessageArchive.COLLECTION_NAME).insertOne(new Document("conversationId", "c1")
+                .append("fromSequence", 1L).append("toSequence", 1L));
+
+        DatabaseConnection.ensureIndexes(database);
+    }
+
+    @AfterAll
+    static void dropDatabase() {
+        if (database != null) {
+            database.drop();
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Test
+    void userQueriesUseIndexes() {
+        assertIndexed("users", Filters.eq("userId", "u1"), null);
+        assertIndexed("users", Filters.in("userId", Arrays.asList("u1", "u2")), null);
+        assertIndexed("users", Filters.eq("phoneNumber", "1"), null);
+        assertIndexed("users", Filters.in("phoneNumber", Arrays.asList("1", "2")), null);
+    }
+
+    @Test
+    void messageQueriesUseIndexes() {
+        assertIndexed("messages", Filters.eq("messageId", "m1"), null);
+        assertIndexed("messages", Filters.eq("senderId", "u1"), null);
+        assertIndexed("messages", Filters.and(Filters.eq("conversationId", "c1"), Filters.gt("sequence", 0L)),
+                Sorts.ascending("sequence"));
+        assertIndexed("messages", Filters.and(Filters.eq("conversationId", "c1"), Filters.lt("sequence", 10L)),
+                Sorts.descending("sequence"));
+        assertIndexed("messages", Filters.lt("timestamp", new Date()), null);
+    }
+
+    @Test
+    void archivePassFindsConversationsFromTheIndexAlone() {
+        Document plan = database.runCommand(new Document("explain", new Document("distinct", "messages")
+                .append("key", "conversationId")
+                .append("query", new Document("timestamp", new Document("$lt", new Date())))));
+        String winningPlan = plan.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+        assertFalse(winningPlan.contains("\"COLLSCAN\""), "distinct scans the collection: " + winningPlan);
+        assertFalse(winningPlan.contains("\"FETCH\""), "distinct reads messages: " + winningPlan);
+    }
+
+    @Test
+    void chatQueriesUseIndexes() {
+        assertIndexed("chats", Filters.eq("chatId", "c1"), null);
+        assertIndexed("chats", Filters.eq("pairKey", "u1|u2"), null);
+        assertIndexed("chats", Filters.or(Filters.eq("userId1", "u1"), Filters.eq("userId2", "u1")),
+                Sorts.descending("lastActivityAt"));
+    }
+
+    @Test
+    void groupQueriesUseIndexes() {
+        assertIndexed("groups", Filters.eq("groupId", "g1"), null);
+        assertIndexed("groups", Filters.in("members", "u1"), null);
+    }
+
+    @Test
+    void archiveQueriesUseIndexes() {
+        assertIndexed(MessageArchive.COLLECTION_NAME, Filters.eq("conversationId", "c1"), Sorts.descending("toSequence"));
+        assertIndexed(MessageArchive.COLLECTION_NAME,
+                Filters.and(Filters.eq("conversationId", "c1"), Filters.gt("toSequence", 0L)),
+                Sorts.ascending("toSequence"));
+    }
+
+    private static void assertIndexed(String collectionName, Bson filter, Bson sort) {
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        Document plan = (sort != null ? collection.find(filter).sort(sort) : collection.find(filter)).explain();
+        Document winningPlan = plan.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+        assertFalse(winningPlan.toJson().contains("\"COLLSCAN\""),
+                collectionName + " " + filter.toBsonDocument().toJson() + " scans the collection: " + winningPlan.toJson());
+    }
+}
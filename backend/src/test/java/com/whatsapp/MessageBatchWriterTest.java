@@ -0,0 +1,122 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class MessageBatchWriterTest {
+    private static final int MESSAGES = 10_000;
+    private static final int ROUND = 1_000;
+
+    @Test
+    void writesEachMessageOnceRegardlessOfChatLength() {
+        RecordingCollection<Message> messages = new RecordingCollection<>();
+        MessageBatchWriter writer = new MessageBatchWriter(messages.collection());
+        try {
+            int insertedBefore = 0;
+            for (int round = 0; round < MESSAGES / ROUND; round++) {
+                for (int i = 0; i < ROUND; i++) {
+                    long sequence = (long) round * ROUND + i + 1;
+                    writer.enqueue(new Message("MSG-" + sequence, "alice", "hello " + sequence,
+                            new Date(), null, "CHAT-1", sequence));
+                }
+                writer.flush();
+
+                // The thousandth round of sends costs the same as the first: one document per message
+                int inserted = messages.inserted().size();
+                assertEquals(ROUND, inserted - insertedBefore, "documents written in round " + round);
+                insertedBefore = inserted;
+            }
+        } finally {
+            writer.close();
+        }
+
+        List<Message> inserted = messages.inserted();
+        Set<String> ids = new HashSet<>();
+        for (Message message : inserted) {
+            ids.add(message.getMessageId());
+        }
+        assertEquals(MESSAGES, inserted.size());
+        assertEquals(MESSAGES, ids.size(), "no message is written twice");
+        assertTrue(messages.insertCalls() < MESSAGES / 10,
+                "messages are grouped into batches, got " + messages.insertCalls() + " inserts");
+    }
+
+    @Test
+    void acknowledgesOnlyAfterTheBatchIsWritten() {
+        RecordingCollection<Message> messages = new RecordingCollection<>();
+        MessageBatchWriter writer = new MessageBatchWriter(messages.collection());
+        try {
+            boolean saved = writer.enqueue(new Message("MSG-1", "alice", "hi")).join();
+            assertTrue(saved);
+            assertEquals(1, messages.inserted().size());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void retriesLoggedMessagesUntilTheInsertSucceeds() {
+        RecordingCollection<Message> messages = new RecordingCollection<>(2);
+        MessageBatchWriter writer = new MessageBatchWriter(messages.collection());
+        try {
+            boolean saved = writer.enqueueRetrying(new Message("MSG-1", "alice", "hi")).join();
+            assertTrue(saved, "stored after the injected failures");
+            assertEquals(1, messages.insertCalls());
+            assertEquals("MSG-1", messages.inserted().get(0).getMessageId());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void reportsFailedInsertsWithoutRetrying() {
+        RecordingCollection<Message> messages = new RecordingCollection<>(1);
+        MessageBatchWriter writer = new MessageBatchWriter(messages.collection());
+        try {
+            assertFalse(writer.enqueue(new Message("MSG-1", "alice", "hi")).join());
+            writer.flush();
+            assertEquals(0, messages.insertCalls());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void retryingAMessageAlreadyStoredCountsAsStored() {
+        // A write-ahead log retry whose earlier attempt landed hits the messageId index
+        RecordingCollection<Message> messages = new RecordingCollection<Message>()
+                .uniqueOn("messageId_unique", Message::getMessageId);
+        MessageBatchWriter writer = new MessageBatchWriter(messages.collection());
+        try {
+            assertTrue(writer.enqueue(new Message("MSG-1", "alice", "hi")).join());
+            assertTrue(writer.enqueueRetrying(new Message("MSG-1", "alice", "hi")).join(),
+                    "a duplicate messageId means the message is in the database");
+            assertEquals(1, messages.inserted().size());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void reportsRetryingWritesThatConflictWithAnotherMessage() {
+        RecordingCollection<Message> messages = new RecordingCollection<Message>()
+                .uniqueOn("conversationId_sequence", m -> m.getConversationId() + "|" + m.getSequence());
+        MessageBatchWriter writer = new MessageBatchWriter(messages.collection());
+        try {
+            assertTrue(writer.enqueue(new Message("MSG-1", "alice", "hi", new Date(), null, "CHAT-1", 1)).join());
+            assertFalse(writer.enqueueRetrying(new Message("MSG-2", "bob", "hey", new Date(), null, "CHAT-1", 1)).join(),
+                    "another message holds the sequence, so this one was never stored");
+            assertEquals(1, messages.inserted().size());
+            assertEquals("MSG-1", messages.inserted().get(0).getMessageId());
+        } finally {
+            writer.close();
+        }
+    }
+}
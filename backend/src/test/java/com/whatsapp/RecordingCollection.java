@@ -0,0 +1,109 @@
+package com.whatsapp;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.bson.BsonDocument;
+
+/**
+ * A MongoCollection stand-in that records insertMany calls instead of
+ * talking to a database. The first failFirst calls throw, to exercise
+ * retry paths. With uniqueOn set, documents whose key was already inserted
+ * are rejected the way a unique index rejects them. Any other collection
+ * method is unsupported.
+ */
+class RecordingCollection<T> {
+    private final List<List<T>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger failuresLeft;
+    private final MongoCollection<T> collection;
+    private final Set<Object> uniqueKeys = new HashSet<>();
+    private Function<T, Object> uniqueKey;
+    private String uniqueIndexName;
+
+    @SuppressWarnings("unchecked")
+    RecordingCollection(int failFirst) {
+        this.failuresLeft = new AtomicInteger(failFirst);
+        this.collection = (MongoCollection<T>) Proxy.newProxyInstance(
+                MongoCollection.class.getClassLoader(),
+                new Class<?>[] {MongoCollection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "insertMany":
+                            if (failuresLeft.getAndDecrement() > 0) {
+                                throw new MongoException("Injected insert failure");
+                            }
+                            insert((List<T>) args[0]);
+                            return null;
+                        case "toString":
+                            return "RecordingCollection";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    RecordingCollection() {
+        this(0);
+    }
+
+    // Reject inserts that repeat a key, naming indexName in the error like the server does
+    RecordingCollection<T> uniqueOn(String indexName, Function<T, Object> key) {
+        this.uniqueIndexName = indexName;
+        this.uniqueKey = key;
+        return this;
+    }
+
+    private synchronized void insert(List<T> documents) {
+        List<T> accepted = new ArrayList<>();
+        List<BulkWriteError> errors = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i++) {
+            T document = documents.get(i);
+            if (uniqueKey != null && !uniqueKeys.add(uniqueKey.apply(document))) {
+                errors.add(new BulkWriteError(11000, "E11000 duplicate key error collection: whatsapp_db.messages index: "
+                        + uniqueIndexName + " dup key", new BsonDocument(), i));
+            } else {
+                accepted.add(document);
+            }
+        }
+        batches.add(accepted);
+        if (!errors.isEmpty()) {
+            throw new MongoBulkWriteException(BulkWriteResult.acknowledged(accepted.size(), 0, 0, 0,
+                    Collections.emptyList(), Collections.emptyList()), errors, null,
+                    new ServerAddress(), Collections.emptySet());
+        }
+    }
+
+    MongoCollection<T> collection() {
+        return collection;
+    }
+
+    // Number of insertMany calls that reached the "database"
+    int insertCalls() {
+        return batches.size();
+    }
+
+    List<T> inserted() {
+        List<T> all = new ArrayList<>();
+        synchronized (batches) {
+            for (List<T> batch : batches) {
+                all.addAll(batch);
+            }
+        }
+        return all;
+    }
+}
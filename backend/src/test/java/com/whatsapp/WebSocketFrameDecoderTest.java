@@ -0,0 +1,329 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class WebSocketFrameDecoderTest {
+    private static final int MAX_MESSAGE = 64 * 1024;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void decodesMaskedTextFrame() {
+        Recorder recorder = decode(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x81, text("hello")));
+        assertEquals(List.of("text:hello"), recorder.events);
+    }
+
+    @Test
+    void decodesExtendedLengths() {
+        byte[] medium = new byte[300];
+        byte[] large = new byte[70_000];
+        random.nextBytes(medium);
+        random.nextBytes(large);
+        Recorder recorder = decode(new WebSocketFrameDecoder(128 * 1024),
+                concat(masked(0x82, medium), masked(0x82, large)));
+        assertEquals(List.of("binary:" + Arrays.hashCode(medium), "binary:" + Arrays.hashCode(large)),
+                recorder.events);
+    }
+
+    @Test
+    void reassemblesHeaderSplitAcrossReads() {
+        byte[] payload = new byte[1000];
+        random.nextBytes(payload);
+        byte[] frame = masked(0x82, payload);
+        // Cut inside the extended length and again inside the mask key
+        for (int[] cuts : new int[][] {{1}, {3}, {2, 5}, {6, 500}}) {
+            WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(MAX_MESSAGE);
+            Recorder recorder = new Recorder();
+            int from = 0;
+            for (int cut : cuts) {
+                feed(decoder, Arrays.copyOfRange(frame, from, cut), recorder);
+                from = cut;
+            }
+            assertEquals(List.of(), recorder.events, "nothing before the frame is complete");
+            feed(decoder, Arrays.copyOfRange(frame, from, frame.length), recorder);
+            assertEquals(List.of("binary:" + Arrays.hashCode(payload)), recorder.events);
+        }
+    }
+
+    @Test
+    void decodesByteAtATime() {
+        byte[] stream = concat(
+                masked(0x01, text("frag")),
+                masked(0x89, text("p")),
+                masked(0x80, text("mented")),
+                masked(0x81, text("second")),
+                masked(0x88, closePayload(1000, "bye")));
+        WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(MAX_MESSAGE);
+        Recorder recorder = new Recorder();
+        for (byte b : stream) {
+            feed(decoder, new byte[] {b}, recorder);
+        }
+        assertEquals(List.of("ping:p", "text:fragmented", "text:second", "close:1000:bye"), recorder.events);
+    }
+
+    @Test
+    void deliversControlFramesInterleavedWithFragments() {
+        Recorder recorder = decode(new WebSocketFrameDecoder(MAX_MESSAGE), concat(
+                masked(0x01, text("a")),
+                masked(0x89, text("1")),
+                masked(0x00, text("b")),
+                masked(0x8A, text("2")),
+                masked(0x80, text("c"))));
+        assertEquals(List.of("ping:1", "pong:2", "text:abc"), recorder.events);
+    }
+
+    @Test
+    void decodesManyFramesInOneRead() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            stream.writeBytes(masked(0x81, text("message " + i)));
+            expected.add("text:message " + i);
+        }
+        assertEquals(expected, decode(new WebSocketFrameDecoder(MAX_MESSAGE), stream.toByteArray()).events);
+    }
+
+    @Test
+    void rejectsReservedBits() {
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0xC1, text("x")),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0xA1, text("x")),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+    }
+
+    @Test
+    void acceptsRsv1OnlyWhenNegotiatedAndOnFirstDataFrame() {
+        WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(MAX_MESSAGE);
+        decoder.allowRsv1(true);
+        assertEquals(List.of("text+compressed:x"), decode(decoder, masked(0xC1, text("x"))).events);
+
+        decoder = new WebSocketFrameDecoder(MAX_MESSAGE);
+        decoder.allowRsv1(true);
+        assertProtocolError(decoder, concat(masked(0x41, text("x")), masked(0xC0, text("y"))),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+
+        decoder = new WebSocketFrameDecoder(MAX_MESSAGE);
+        decoder.allowRsv1(true);
+        assertProtocolError(decoder, masked(0xC9, text("x")), WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+    }
+
+    @Test
+    void rejectsUnknownOpcodes() {
+        for (int opcode : new int[] {0x3, 0x7, 0xB, 0xF}) {
+            assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x80 | opcode, text("x")),
+                    WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        }
+    }
+
+    @Test
+    void rejectsBadFragmentation() {
+        // Continuation with nothing to continue
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x80, text("x")),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        // New data frame while a fragmented message is open
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE),
+                concat(masked(0x01, text("a")), masked(0x81, text("b"))),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        // Fragmented control frame
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x09, text("x")),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+    }
+
+    @Test
+    void rejectsUnmaskedAndOversizedControlFrames() {
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), new byte[] {(byte) 0x81, 1, 'x'},
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x89, new byte[126]),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+    }
+
+    @Test
+    void rejectsInvalidClosePayloads() {
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x88, new byte[] {3}),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        assertProtocolError(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x88, closePayload(1005, "")),
+                WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR);
+        assertEquals(List.of("close:1005:"),
+                decode(new WebSocketFrameDecoder(MAX_MESSAGE), masked(0x88, new byte[0])).events);
+    }
+
+    @Test
+    void enforcesMessageSizeLimit() {
+        int limit = 1024;
+        // A frame well over the limit is refused from its header alone, before the payload is buffered
+        byte[] frame = masked(0x82, new byte[limit * 4]);
+        assertProtocolError(new WebSocketFrameDecoder(limit), Arrays.copyOf(frame, 8),
+                WebSocketFrameDecoder.CLOSE_MESSAGE_TOO_BIG);
+        // One byte over is refused once the frame is complete
+        assertProtocolError(new WebSocketFrameDecoder(limit), masked(0x82, new byte[limit + 1]),
+                WebSocketFrameDecoder.CLOSE_MESSAGE_TOO_BIG);
+        // Exactly the limit is fine
+        assertEquals(1, decode(new WebSocketFrameDecoder(limit), masked(0x82, new byte[limit])).events.size());
+        // Fragments that only add up to more than the limit
+        assertProtocolError(new WebSocketFrameDecoder(limit),
+                concat(masked(0x02, new byte[limit / 2 + 1]), masked(0x80, new byte[limit / 2])),
+                WebSocketFrameDecoder.CLOSE_MESSAGE_TOO_BIG);
+        // A 64-bit length with the top bit set
+        assertProtocolError(new WebSocketFrameDecoder(limit),
+                new byte[] {(byte) 0x82, (byte) 0xFF, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0},
+                WebSocketFrameDecoder.CLOSE_MESSAGE_TOO_BIG);
+    }
+
+    @Test
+    void ignoresInputAfterCloseOrError() {
+        Recorder recorder = decode(new WebSocketFrameDecoder(MAX_MESSAGE),
+                concat(masked(0x88, closePayload(1000, "")), masked(0x81, text("late"))));
+        assertEquals(List.of("close:1000:"), recorder.events);
+
+        recorder = decode(new WebSocketFrameDecoder(MAX_MESSAGE),
+                concat(masked(0x83, text("x")), masked(0x81, text("late"))));
+        assertEquals(List.of("error:1002"), recorder.events);
+    }
+
+    @Test
+    void decodesRandomStreamsFedInRandomChunks() {
+        for (int round = 0; round < 500; round++) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            List<String> expected = new ArrayList<>();
+            for (int m = 0, messages = 1 + random.nextInt(5); m < messages; m++) {
+                byte[] payload = new byte[random.nextInt(random.nextBoolean() ? 100 : 3000)];
+                random.nextBytes(payload);
+                expected.add("binary:" + Arrays.hashCode(payload));
+                int fragments = 1 + random.nextInt(3);
+                for (int f = 0, from = 0; f < fragments; f++) {
+                    int to = f == fragments - 1 ? payload.length : from + random.nextInt(payload.length - from + 1);
+                    int b0 = (f == fragments - 1 ? 0x80 : 0) | (f == 0 ? 0x2 : 0x0);
+                    stream.writeBytes(masked(b0, Arrays.copyOfRange(payload, from, to)));
+                    from = to;
+                }
+            }
+            byte[] bytes = stream.toByteArray();
+
+            WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(MAX_MESSAGE);
+            Recorder recorder = new Recorder();
+            for (int from = 0; from < bytes.length; ) {
+                int to = Math.min(bytes.length, from + 1 + random.nextInt(random.nextBoolean() ? 20 : 5000));
+                feed(decoder, Arrays.copyOfRange(bytes, from, to), recorder);
+                from = to;
+            }
+            assertEquals(expected, recorder.events, "round " + round);
+        }
+    }
+
+    @Test
+    void decodesWhatTheEncoderProducesOnceMasked() {
+        ByteBuffer[] frame = WebSocketFrameEncoder.frame(WebSocketFrameDecoder.OP_TEXT, false,
+                ByteBuffer.wrap(text("round trip")));
+        byte[] header = bytes(frame[0]);
+        byte[] payload = bytes(frame[1]);
+        assertEquals(List.of("text:round trip"),
+                decode(new WebSocketFrameDecoder(MAX_MESSAGE), masked(header[0] & 0xFF, payload)).events);
+    }
+
+    private static void assertProtocolError(WebSocketFrameDecoder decoder, byte[] input, int closeCode) {
+        Recorder recorder = decode(decoder, input);
+        assertFalse(recorder.events.isEmpty(), "expected a protocol error");
+        assertEquals("error:" + closeCode, recorder.events.get(recorder.events.size() - 1));
+    }
+
+    private static Recorder decode(WebSocketFrameDecoder decoder, byte[] input) {
+        Recorder recorder = new Recorder();
+        feed(decoder, input, recorder);
+        return recorder;
+    }
+
+    // Feed through a direct buffer, like a socket read, and check it is fully consumed
+    private static void feed(WebSocketFrameDecoder decoder, byte[] input, Recorder recorder) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(input.length);
+        buffer.put(input).flip();
+        decoder.decode(buffer, recorder);
+        assertFalse(buffer.hasRemaining(), "decoder left bytes in the read buffer");
+    }
+
+    // A client frame: first header byte b0, masked with a random key
+    private byte[] masked(int b0, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(payload.length + 14);
+        frame.put((byte) b0);
+        if (payload.length < 126) {
+            frame.put((byte) (0x80 | payload.length));
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) payload.length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(payload.length);
+        }
+        byte[] mask = new byte[4];
+        random.nextBytes(mask);
+        frame.put(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.put((byte) (payload[i] ^ mask[i & 3]));
+        }
+        return Arrays.copyOf(frame.array(), frame.position());
+    }
+
+    private static byte[] closePayload(int code, String reason) {
+        return bytes(ByteBuffer.allocate(2 + reason.length()).putShort((short) code)
+                .put(text(reason)).flip());
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    // Records every callback as a short string; binary payloads by hash
+    private static class Recorder implements WebSocketFrameDecoder.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onMessage(boolean text, boolean compressed, ByteBuffer payload) {
+            byte[] bytes = bytes(payload);
+            String kind = (text ? "text" : "binary") + (compressed ? "+compressed" : "");
+            events.add(kind + ":" + (text ? new String(bytes, StandardCharsets.UTF_8) : Arrays.hashCode(bytes)));
+        }
+
+        @Override
+        public void onPing(ByteBuffer payload) {
+            events.add("ping:" + new String(bytes(payload), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onPong(ByteBuffer payload) {
+            events.add("pong:" + new String(bytes(payload), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onClose(int code, ByteBuffer reason) {
+            events.add("close:" + code + ":" + new String(bytes(reason), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onProtocolError(int closeCode, String reason) {
+            events.add("error:" + closeCode);
+        }
+    }
+}
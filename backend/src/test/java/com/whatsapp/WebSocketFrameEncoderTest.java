@@ -0,0 +1,68 @@
+package com.whatsapp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class WebSocketFrameEncoderTest {
+
+    @Test
+    void usesShortestLengthEncoding() {
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_TEXT, true, false, 125),
+                0x81, 125);
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_TEXT, true, false, 126),
+                0x81, 126, 0, 126);
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_BINARY, true, false, 0xFFFF),
+                0x82, 126, 0xFF, 0xFF);
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_BINARY, true, false, 0x10000),
+                0x82, 127, 0, 0, 0, 0, 0, 1, 0, 0);
+    }
+
+    @Test
+    void setsFinAndRsv1Bits() {
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_TEXT, false, false, 0), 0x01, 0);
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_TEXT, true, true, 0), 0xC1, 0);
+        assertHeader(WebSocketFrameEncoder.header(WebSocketFrameDecoder.OP_CONTINUATION, true, false, 0), 0x80, 0);
+    }
+
+    @Test
+    void framePassesThePayloadBufferThroughUncopied() {
+        ByteBuffer payload = ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer[] frame = WebSocketFrameEncoder.frame(WebSocketFrameDecoder.OP_TEXT, false, payload);
+        assertEquals(2, frame.length);
+        assertHeader(frame[0], 0x81, 5);
+        assertSame(payload, frame[1]);
+    }
+
+    @Test
+    void buildsUnmaskedControlFrames() {
+        ByteBuffer ping = WebSocketFrameEncoder.control(WebSocketFrameDecoder.OP_PING,
+                ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        assertHeader(ping, 0x89, 3, 1, 2, 3);
+    }
+
+    @Test
+    void closeCarriesCodeAndTruncatedReason() {
+        assertHeader(WebSocketFrameEncoder.close(WebSocketFrameDecoder.CLOSE_NORMAL, "ok"),
+                0x88, 4, 0x03, 0xE8, 'o', 'k');
+
+        ByteBuffer close = WebSocketFrameEncoder.close(WebSocketFrameDecoder.CLOSE_PROTOCOL_ERROR, "x".repeat(200));
+        assertEquals(0x88, close.get(0) & 0xFF);
+        assertEquals(125, close.get(1), "control payloads stay within 125 bytes");
+        assertEquals(127, close.remaining());
+    }
+
+    private static void assertHeader(ByteBuffer actual, int... expected) {
+        byte[] expectedBytes = new byte[expected.length];
+        for (int i = 0; i < expected.length; i++) {
+            expectedBytes[i] = (byte) expected[i];
+        }
+        byte[] actualBytes = new byte[actual.remaining()];
+        actual.duplicate().get(actualBytes);
+        assertArrayEquals(expectedBytes, actualBytes);
+    }
+}